@@ -0,0 +1,83 @@
+/**
+ * Benchmark is a small harness timing a piece of code. Each benchmark is
+ * warmed up, then run repeatedly for a few timed iterations, and reports
+ * its throughput, average time and allocation per operation.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.lang.management.*;
+
+public class Benchmark {
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 200000000L; // 200ms
+
+	// Values benchmarks produce, kept so the JIT can't drop the work
+	static volatile long sink;
+
+	// Bean for reading bytes allocated by the benchmark thread
+	private static final com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Code being benchmarked
+	 */
+	public interface Op {
+		/**
+		 * Run the code once
+		 * @return the number of operations performed
+		 */
+		public long run();
+	}
+
+	/**
+	 * Run a benchmark and print its results
+	 * @param name name of the benchmark
+	 * @param size number of blocks the benchmark works on
+	 * @param op code being benchmarked
+	 */
+	public static void run(String name, int size, Op op) {
+		// Warm up so the JIT compiles the code first
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			iterate(op);
+
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		long thread = Thread.currentThread().getId();
+		for (int i = 0; i < ITERATIONS; i++) {
+			long startBytes = THREADS.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			ops += iterate(op);
+			nanos += System.nanoTime() - start;
+			bytes += THREADS.getThreadAllocatedBytes(thread) - startBytes;
+		}
+
+		System.out.printf("%-12s %9d %14.1f %14.1f %12.1f %10.1f%n", name,
+			size, ops * 1e9 / nanos, (double) nanos / ops, (double) bytes / ops,
+			bytes * 1e3 / nanos);
+	}
+
+	/**
+	 * Print the header of the result table
+	 */
+	public static void printHeader() {
+		System.out.printf("%-12s %9s %14s %14s %12s %10s%n", "Benchmark",
+			"Blocks", "ops/s", "ns/op", "B/op", "MB/s");
+	}
+
+	/**
+	 * Run the code until an iteration's time is up
+	 * @param op code being benchmarked
+	 * @return the number of operations performed
+	 */
+	private static long iterate(Op op) {
+		long ops = 0;
+		long start = System.nanoTime();
+		do {
+			ops += op.run();
+		} while(System.nanoTime() - start < ITERATION_NANOS);
+		return ops;
+	}
+}
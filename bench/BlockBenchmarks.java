@@ -0,0 +1,166 @@
+/**
+ * BlockBenchmarks measures the hot paths of the model and canvas: block
+ * construction, moving blocks, hit-testing and painting, at chart sizes
+ * from 10 to 1M blocks.
+ *
+ * Usage: java BlockBenchmarks [benchmark...]
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+public class BlockBenchmarks {
+	// Chart sizes every benchmark is run at
+	private static final int[] SIZES = {10, 100, 1000, 10000, 100000,
+		1000000};
+
+	private static final int COLUMNS = 100; // blocks per row of a grid
+	private static final int HITS = 1000; // points hit-tested per op
+	private static final int VIEW = 1000; // size of the painted image
+
+	/**
+	 * Main method running the benchmarks
+	 * @param args names of the benchmarks to run, or none to run all
+	 */
+	public static void main(String[] args) {
+		java.util.List<String> names = Arrays.asList(args.length > 0 ? args :
+			new String[] {"construct", "move", "hittest", "paint"});
+
+		Benchmark.printHeader();
+		for (String name : names) {
+			for (int size : SIZES) {
+				switch(name) {
+				case "construct":
+					construct(size);
+					break;
+				case "move":
+					move(size);
+					break;
+				case "hittest":
+					hitTest(size);
+					break;
+				case "paint":
+					paint(size);
+					break;
+				default:
+					System.err.println("Unknown benchmark " + name);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build a chain of blocks stacked in a column like the parser does
+	 * @param size number of blocks
+	 * @param c canvas to add the blocks to, may be null
+	 * @return the blocks
+	 */
+	private static FlowchartBlock[] chain(int size, BlockCanvas c) {
+		FlowchartBlock[] blocks = new FlowchartBlock[size];
+		FlowchartBlock pre = null;
+		double y = 0;
+		for (int i = 0; i < size; i++) {
+			if(i == 0 || i == size - 1)
+				pre = new TerminatorBlock(0, y, "Terminator " + i, pre, c);
+			else
+				pre = new DataBlock(0, y, "Statement " + i, pre, c);
+			blocks[i] = pre;
+			if(c != null)
+				c.addBlock(pre);
+			y += FlowchartBlock.getHeight() + FlowchartBlock.getBuffer();
+		}
+		return blocks;
+	}
+
+	/**
+	 * Benchmark DataBlock and TerminatorBlock construction
+	 * @param size number of blocks built per op
+	 */
+	private static void construct(int size) {
+		Benchmark.run("construct", size, () -> {
+			FlowchartBlock[] blocks = chain(size, null);
+			Benchmark.sink = blocks[size - 1].getId();
+			return size;
+		});
+	}
+
+	/**
+	 * Benchmark moving every block of a chart
+	 * @param size number of blocks moved per op
+	 */
+	private static void move(int size) {
+		FlowchartBlock[] blocks = chain(size, null);
+		int[] step = {1};
+		Benchmark.run("move", size, () -> {
+			// Move back and forth so the chart doesn't drift away
+			step[0] = -step[0];
+			for (int i = 0; i < blocks.length; i++)
+				blocks[i].move(step[0], step[0]);
+			return size;
+		});
+	}
+
+	/**
+	 * Benchmark the hit-testing done by BlockCanvas.mousePressed on blocks
+	 * laid out in a grid
+	 * @param size number of blocks in the index
+	 */
+	private static void hitTest(int size) {
+		BlockIndex index = new BlockIndex();
+		FlowchartBlock pre = null;
+		int rows = (size + COLUMNS - 1) / COLUMNS;
+		for (int i = 0; i < size; i++) {
+			pre = new DataBlock((i % COLUMNS) * 250, (i / COLUMNS) * 150,
+				"Statement " + i, pre, null);
+			index.add(pre);
+		}
+
+		// Points spread over the whole grid
+		Random random = new Random(42);
+		Point[] points = new Point[HITS];
+		for (int i = 0; i < HITS; i++)
+			points[i] = new Point(random.nextInt(Math.min(size, COLUMNS) * 250),
+				random.nextInt(rows * 150));
+
+		ArrayList<FlowchartBlock> hits = new ArrayList<FlowchartBlock>();
+		Benchmark.run("hittest", size, () -> {
+			long found = 0;
+			for (int i = 0; i < HITS; i++) {
+				hits.clear();
+				index.blocksAt(points[i], hits);
+				found += hits.size();
+			}
+			Benchmark.sink = found;
+			return HITS;
+		});
+	}
+
+	/**
+	 * Benchmark painting the canvas into an off-screen image
+	 * @param size number of blocks on the canvas
+	 */
+	private static void paint(int size) {
+		// The editor panel uses heavyweight AWT components
+		if(GraphicsEnvironment.isHeadless()) {
+			if(size == SIZES[0])
+				System.err.println("paint needs a display, skipped");
+			return;
+		}
+
+		BlockCanvas c = new BlockCanvas(new EditorPanel());
+		chain(size, c);
+		BufferedImage image = new BufferedImage(VIEW, VIEW,
+			BufferedImage.TYPE_INT_RGB);
+		Benchmark.run("paint", size, () -> {
+			Graphics2D g = image.createGraphics();
+			g.setClip(0, 0, VIEW, VIEW);
+			c.paintComponent(g);
+			g.dispose();
+			return 1;
+		});
+	}
+}
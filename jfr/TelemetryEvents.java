@@ -0,0 +1,97 @@
+/**
+ * TelemetryEvents holds the JDK Flight Recorder events of the Telemetry
+ * probes. It is only loaded by name once Telemetry has checked that the JVM
+ * has Flight Recorder, so the rest of the program builds against Java 8 and
+ * runs on JVMs without it. It is kept out of src and compiled on its own,
+ * with a JDK that has jdk.jfr and src on the classpath. Events are only
+ * created while a recording has them enabled.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import jdk.jfr.*;
+
+final class TelemetryEvents implements Telemetry.Recorder {
+	/**
+	 * Fields shared by every probe's event
+	 */
+	@Category("Flowchart")
+	@StackTrace(false)
+	abstract static class ProbeEvent extends Event {
+		@Label("Blocks")
+		@Description("Blocks drawn, hit, moved, parsed or generated")
+		long blocks;
+	}
+
+	@Name("flowchart.Frame")
+	@Label("Frame")
+	@Description("Painting of the canvas")
+	static class FrameEvent extends ProbeEvent {
+	}
+
+	@Name("flowchart.HitTest")
+	@Label("Hit Test")
+	@Description("Finding the blocks under the mouse")
+	static class HitTestEvent extends ProbeEvent {
+	}
+
+	@Name("flowchart.Move")
+	@Label("Move")
+	@Description("Moving a batch of blocks")
+	static class MoveEvent extends ProbeEvent {
+	}
+
+	@Name("flowchart.Parse")
+	@Label("Parse")
+	@Description("Parsing Java code into blocks")
+	static class ParseEvent extends ProbeEvent {
+	}
+
+	@Name("flowchart.Codegen")
+	@Label("Code Generation")
+	@Description("Generating Java code from blocks")
+	static class CodegenEvent extends ProbeEvent {
+	}
+
+	/**
+	 * Start the event of a probe
+	 * @param kind kind of probe, one of Telemetry's probe kinds
+	 * @return the started event, or null if no recording wants it
+	 */
+	@Override
+	public Object begin(int kind) {
+		ProbeEvent event;
+		switch(kind) {
+		case Telemetry.FRAME_KIND:
+			event = new FrameEvent();
+			break;
+		case Telemetry.HIT_TEST_KIND:
+			event = new HitTestEvent();
+			break;
+		case Telemetry.MOVE_KIND:
+			event = new MoveEvent();
+			break;
+		case Telemetry.PARSE_KIND:
+			event = new ParseEvent();
+			break;
+		default:
+			event = new CodegenEvent();
+		}
+		if(!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End an event started by begin and commit it to the recording
+	 * @param event event returned by begin
+	 * @param blocks number of blocks handled
+	 */
+	@Override
+	public void commit(Object event, long blocks) {
+		ProbeEvent e = (ProbeEvent) event;
+		e.blocks = blocks;
+		e.commit();
+	}
+}
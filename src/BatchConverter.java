@@ -0,0 +1,228 @@
+/**
+ * BatchConverter converts every file in a directory tree from the command
+ * line, without the GUI. Files are converted in parallel on a work-stealing
+ * pool, each one into its own chain of blocks. Java files are converted to
+ * chart files and chart files back to Java files.
+ *
+ * Usage: java BatchConverter tochart|tocode inDir outDir [threads]
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+public class BatchConverter {
+	// Conversion directions
+	public static final String TO_CHART = "tochart";
+	public static final String TO_CODE = "tocode";
+
+	private static final String JAVA = ".java"; // extension of code files
+
+	private final String direction; // direction of the conversion
+	private final Path inDir; // directory of files to convert
+	private final Path outDir; // directory converted files are written to
+
+	// Totals over all converted files
+	private AtomicInteger files = new AtomicInteger();
+	private AtomicInteger failures = new AtomicInteger();
+	private AtomicLong blocks = new AtomicLong();
+
+	/**
+	 * Constructor for BatchConverter
+	 * @param direction TO_CHART or TO_CODE
+	 * @param inDir directory of files to convert
+	 * @param outDir directory converted files are written to
+	 */
+	public BatchConverter(String direction, Path inDir, Path outDir) {
+		if(!direction.equals(TO_CHART) && !direction.equals(TO_CODE))
+			throw new IllegalArgumentException("Unknown direction " +
+				direction);
+		this.direction = direction;
+		this.inDir = inDir;
+		this.outDir = outDir;
+	}
+
+	/**
+	 * Main method running a batch conversion
+	 * @param args direction, input directory, output directory and
+	 * optionally the number of threads
+	 */
+	public static void main(String[] args) {
+		// Never start the AWT toolkit
+		System.setProperty("java.awt.headless", "true");
+
+		if(args.length < 3) {
+			System.err.println("Usage: java BatchConverter tochart|tocode " +
+				"inDir outDir [threads]");
+			System.exit(2);
+		}
+
+		Telemetry.registerMBeans();
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) :
+			Runtime.getRuntime().availableProcessors();
+		try {
+			BatchConverter converter = new BatchConverter(args[0],
+				Paths.get(args[1]), Paths.get(args[2]));
+			long start = System.nanoTime();
+			converter.run(threads);
+			System.out.println("Converted " + converter.getFiles() +
+				" files (" + converter.getBlocks() + " blocks) in " +
+				(System.nanoTime() - start) / 1000000 + " ms, " +
+				converter.getFailures() + " failed");
+			if(converter.getFailures() > 0)
+				System.exit(1);
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Convert all files in the input directory
+	 * @param threads number of threads converting files
+	 * @throws IOException if the input directory can't be listed
+	 */
+	public void run(int threads) throws IOException {
+		// List the files to convert
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(inDir)) {
+			paths = walk.filter(Files::isRegularFile)
+				.filter(path -> path.toString().endsWith(getInExtension()))
+				.collect(Collectors.toList());
+		}
+
+		// Split the files over a work-stealing pool
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new ConvertTask(paths, 0, paths.size()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Convert one file, reporting failures instead of throwing them so the
+	 * other files are still converted
+	 * @param in file to convert
+	 */
+	private void convert(Path in) {
+		Path rel = inDir.relativize(in);
+		try {
+			// Converted file has the same path with the other extension
+			String name = rel.toString();
+			Path out = outDir.resolve(name.substring(0, name.length() -
+				getInExtension().length()) + getOutExtension());
+			Files.createDirectories(out.toAbsolutePath().getParent());
+
+			// Each file gets its own chain of blocks with no canvas
+			int count;
+			if(direction.equals(TO_CHART)) {
+				FlowchartBlock last;
+				try (Reader r = Files.newBufferedReader(in,
+						StandardCharsets.UTF_8)) {
+					CodeParser parser = new CodeParser(r, block -> {}, 0, 0,
+						null);
+					last = parser.parse();
+					count = parser.getCount();
+				}
+				BlockStore store = last != null ? last.getStore() :
+					new BlockStore();
+				new LayoutEngine().layout(store);
+				ChartFile.save(store, out);
+			} else {
+				BlockStore store = ChartFile.load(in);
+				count = store.size();
+				try (Writer w = Files.newBufferedWriter(out,
+						StandardCharsets.UTF_8)) {
+					// Write every chain, one after the other
+					CodeGenerator generator = new CodeGenerator(w);
+					for (int id = 0; id < count; id++) {
+						if(!store.isRemoved(id) && store.getPre(id) == -1)
+							generator.generate(store, id);
+					}
+				}
+			}
+
+			files.incrementAndGet();
+			blocks.addAndGet(count);
+		} catch (IOException | RuntimeException e) {
+			failures.incrementAndGet();
+			System.err.println(rel + ": " + e);
+		}
+	}
+
+	/**
+	 * Getter for the extension of the files being converted
+	 * @return the extension of the input files
+	 */
+	public String getInExtension() {
+		return direction.equals(TO_CHART) ? JAVA : ChartFile.EXTENSION;
+	}
+
+	/**
+	 * Getter for the extension of the converted files
+	 * @return the extension of the output files
+	 */
+	public String getOutExtension() {
+		return direction.equals(TO_CHART) ? ChartFile.EXTENSION : JAVA;
+	}
+
+	/**
+	 * Getter for files
+	 * @return the number of files converted
+	 */
+	public int getFiles() {
+		return files.get();
+	}
+
+	/**
+	 * Getter for failures
+	 * @return the number of files that couldn't be converted
+	 */
+	public int getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Getter for blocks
+	 * @return the number of blocks in all converted files
+	 */
+	public long getBlocks() {
+		return blocks.get();
+	}
+
+	/**
+	 * This class converts a range of files, splitting it in half until a
+	 * single file is left so idle threads can steal the other half
+	 */
+	@SuppressWarnings("serial")
+	private class ConvertTask extends RecursiveAction {
+		private final List<Path> paths; // all files being converted
+		private final int lo; // first file of the range
+		private final int hi; // end of the range, exclusive
+
+		ConvertTask(List<Path> paths, int lo, int hi) {
+			this.paths = paths;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(hi - lo <= 1) {
+				if(hi > lo)
+					convert(paths.get(lo));
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ConvertTask(paths, lo, mid),
+				new ConvertTask(paths, mid, hi));
+		}
+	}
+}
@@ -6,46 +6,384 @@
  */
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.*;
 
 @SuppressWarnings("serial")
 public class BlockGUI extends JFrame {
-	private static final int BUFFER = 50; // space between blocks
+	// Created in init so converting without the GUI never loads Swing
+	private static EditorPanel p; // Edit panel for canvas
+	private static BlockCanvas c; // BlockCanvas to draw on
 	
-	private static EditorPanel p = new EditorPanel(); // Edit panel for canvas
-	private static BlockCanvas c = new BlockCanvas(p); // BlockCanvas to draw on
+	// Java file shown on the canvas and the parser keeping it up to date
+	private static String codePath;
+	private static IncrementalParser code;
+	
+	// Watcher converting the Java file again whenever it is saved, and 
+	// whether it was saved while another conversion was running
+	private static SourceWatcher watcher;
+	private static boolean reloadPending = false;
+	
+	// Code generated from the chart, shown beside it with F4 and kept up
+	// to date as the chart is edited. The code is generated on a thread of
+	// its own, since the first time takes as long as the chart is big.
+	private static final int PREVIEW_REFRESH = 250; // ms between updates
+	private static final ExecutorService PREVIEW_THREAD =
+		Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "Preview");
+			t.setDaemon(true);
+			return t;
+		});
+	private static JTextArea preview;
+	private static String previewCode = ""; // code shown in the preview
+	private static boolean previewing = false; // whether code is generated
+	private static CodeCache previewCache; // only used on PREVIEW_THREAD
 	
 	/**
 	 * Initialize the GUI components
 	 */
 	public static void init() {
+		// Create the editor panel and canvas
+		p = new EditorPanel();
+		c = new BlockCanvas(p);
+		
 		// Create new frame and set closing action and border layout
 		JFrame frame = new JFrame("Flowchart to Code Converter");
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.getContentPane().setLayout(new BorderLayout());
 
-		// Add the canvas to the center
-		frame.getContentPane().add(c, BorderLayout.CENTER);
+		// Add the canvas to the center, scrolling to pan around it
+		frame.getContentPane().add(new JScrollPane(c), BorderLayout.CENTER);
 		frame.getContentPane().add(p, BorderLayout.SOUTH);
 		
+		// Esc cancels the conversion running in the background
+		c.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+			KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "cancel");
+		c.getActionMap().put("cancel", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				ConversionWorker.cancelRunning();
+			}
+		});
+		
+		// F4 shows and hides the code preview
+		preview = new JTextArea(40, 60);
+		preview.setEditable(false);
+		preview.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		JScrollPane previewPane = new JScrollPane(preview);
+		previewPane.setVisible(false);
+		frame.getContentPane().add(previewPane, BorderLayout.EAST);
+		javax.swing.Timer previewTimer = new javax.swing.Timer(
+			PREVIEW_REFRESH, e -> updatePreview());
+		c.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+			KeyStroke.getKeyStroke(KeyEvent.VK_F4, 0), "preview");
+		c.getActionMap().put("preview", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				previewPane.setVisible(!previewPane.isVisible());
+				if(previewPane.isVisible()) {
+					updatePreview();
+					previewTimer.start();
+				} else {
+					previewTimer.stop();
+				}
+				frame.revalidate();
+			}
+		});
+		
 		// Pack frame content and set visible
 		frame.pack();
 		frame.setVisible(true);
 	}
 
+	/**
+	 * Parse a Java file onto the canvas in the background
+	 * @param path path of the Java file
+	 */
+	private static void parseCode(String path) {
+		codePath = path;
+		IncrementalParser parser = new IncrementalParser(c, c.getInit_x(), 
+			c.getInit_y(), c);
+		LayoutEngine engine = new LayoutEngine();
+		BlockStore store = c.getStore();
+		new ConversionWorker(p, path) {
+			protected String convert() throws Exception {
+				parser.update(readCode(path));
+				engine.layout(store);
+				return "Converted " + path + " into " + store.size() + 
+					" blocks";
+			}
+			
+			protected double getProgress() {
+				return parser.getProgress();
+			}
+			
+			protected void succeeded() {
+				// Keep the generated chart laid out as it is edited
+				code = parser;
+				c.setLayoutEngine(engine);
+				reloadIfPending();
+			}
+			
+			protected void stopped() {
+				c.setStore(new BlockStore());
+				c.clear();
+				reloadIfPending();
+			}
+		}.start();
+		
+		// F5 converts the file again after it was edited
+		c.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+			KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "reload");
+		c.getActionMap().put("reload", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				reloadCode();
+			}
+		});
+		watchCode(path);
+	}
+	
+	/**
+	 * Convert the Java file again whenever it is saved, such as from an
+	 * editor open beside the chart
+	 * @param path path of the Java file
+	 */
+	private static void watchCode(String path) {
+		try {
+			if(watcher == null)
+				watcher = new SourceWatcher();
+			watcher.watch(java.nio.file.Paths.get(path), 
+				() -> SwingUtilities.invokeLater(() -> codeChanged()));
+		} catch (IOException e) {
+			p.getPrompt().setText("Could not watch " + path + 
+				", press F5 to convert it again: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Convert the Java file again after it was saved, or once the running
+	 * conversion is done
+	 */
+	private static void codeChanged() {
+		if(ConversionWorker.isRunning())
+			reloadPending = true;
+		else
+			reloadCode();
+	}
+	
+	/**
+	 * Convert the Java file again if it was saved while a conversion was
+	 * running
+	 */
+	private static void reloadIfPending() {
+		if(reloadPending) {
+			reloadPending = false;
+			reloadCode();
+		}
+	}
+	
+	/**
+	 * Convert the Java file on the canvas again in the background, only 
+	 * converting the methods and other parts of it that changed
+	 */
+	private static void reloadCode() {
+		if(ConversionWorker.isRunning())
+			return;
+		
+		// The first conversion was stopped, so convert all of it again
+		if(code == null) {
+			parseCode(codePath);
+			return;
+		}
+		new ConversionWorker(p, codePath) {
+			private volatile FlowchartBlock head; // first block of the chart
+			
+			protected String convert() throws Exception {
+				head = code.update(readCode(codePath));
+				return "Converted " + code.getParsed() + " of " + 
+					code.getRegionCount() + " parts of " + codePath + 
+					" again";
+			}
+			
+			protected double getProgress() {
+				return code.getProgress();
+			}
+			
+			protected void succeeded() {
+				// Lay out here, where the engine lays out after edits too,
+				// only the methods converted again if they took the place
+				// of others. Otherwise only the new chain, as the blocks it
+				// replaced stay in the store until the canvas frees them.
+				LayoutEngine engine = c.getLayoutEngine();
+				java.util.List<FlowchartBlock> changed = code.getChanged();
+				if(engine != null && head != null && changed != null) {
+					for (FlowchartBlock block : changed)
+						engine.update(block);
+				} else if(engine != null && head != null) {
+					engine.layout(head);
+				}
+				
+				// The blocks the old steps changed may be gone
+				c.getCommandLog().clear();
+				c.repaint();
+				reloadIfPending();
+			}
+			
+			protected void stopped() {
+				// An update stopped part way may have changed blocks too
+				succeeded();
+			}
+		}.start();
+	}
+	
+	/**
+	 * Read a Java file
+	 * @param path path of the Java file
+	 * @return the code in the file
+	 * @throws IOException if the file can't be read
+	 */
+	private static String readCode(String path) throws IOException {
+		return new String(java.nio.file.Files.readAllBytes(
+			java.nio.file.Paths.get(path)), 
+			java.nio.charset.StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Open a saved chart on the canvas in the background. The canvas
+	 * indexes every block, so every page of the file is read and the
+	 * blocks appear a batch at a time.
+	 * @param path path of the chart file
+	 */
+	private static void openChart(String path) {
+		new ConversionWorker(p, path) {
+			private volatile BlockStore store; // store of the chart opened
+			private volatile int added = 0; // blocks added so far
+			
+			protected String convert() throws Exception {
+				BlockStore store = ChartFile.load(
+					java.nio.file.Paths.get(path));
+				
+				// Blocks are queued for the canvas after the store is set
+				SwingUtilities.invokeLater(() -> c.setStore(store));
+				this.store = store;
+				for (int id = 0; id < store.size(); id++) {
+					if(Thread.interrupted())
+						throw new InterruptedException();
+					c.addBlock(store.getBlock(id));
+					added = id + 1;
+				}
+				return "Opened " + path + " with " + store.size() + 
+					" blocks";
+			}
+			
+			protected double getProgress() {
+				return store == null || store.size() == 0 ? -1 : 
+					(double) added / store.size();
+			}
+			
+			protected void stopped() {
+				c.setStore(new BlockStore());
+				c.clear();
+			}
+		}.start();
+	}
+
+	/**
+	 * Show the code generated from the chart on the preview. The code is
+	 * generated on the preview thread, only converting the blocks edited
+	 * since the last update, and only the lines that changed are replaced,
+	 * so the canvas keeps responding however large the chart is.
+	 */
+	private static void updatePreview() {
+		// Charts being converted change too often to follow, and one update
+		// is generated at a time
+		if(ConversionWorker.isRunning() || previewing)
+			return;
+		previewing = true;
+		BlockStore store = c.getStore();
+		PREVIEW_THREAD.execute(() -> {
+			String now = null;
+			try {
+				now = generatePreview(store);
+			} finally {
+				String code = now;
+				SwingUtilities.invokeLater(() -> {
+					previewing = false;
+					if(code != null)
+						showPreview(code);
+				});
+			}
+		});
+	}
+
+	/**
+	 * Generate the code of a chart for the preview, on the preview thread
+	 * @param store store of the chart
+	 * @return the code of the chart's first chain
+	 */
+	private static String generatePreview(BlockStore store) {
+		if(previewCache == null || previewCache.getStore() != store) {
+			if(previewCache != null)
+				previewCache.close();
+			previewCache = new CodeCache(store);
+		}
+		FlowchartBlock block = null;
+		for (int id = 0; id < store.size() && block == null; id++)
+			block = store.getBlock(id);
+		return block == null ? "" : previewCache.getCode(block);
+	}
+
+	/**
+	 * Show generated code on the preview
+	 * @param now code of the chart
+	 */
+	private static void showPreview(String now) {
+		if(now == previewCode)
+			return;
+
+		// Replace the text between the unchanged start and end
+		int start = 0;
+		int max = Math.min(now.length(), previewCode.length());
+		while(start < max && now.charAt(start) == previewCode.charAt(start))
+			start++;
+		int end = 0;
+		while(end < max - start && now.charAt(now.length() - 1 - end) ==
+				previewCode.charAt(previewCode.length() - 1 - end))
+			end++;
+		preview.replaceRange(now.substring(start, now.length() - end), start,
+			previewCode.length() - end);
+		previewCode = now;
+	}
+
 	/**
 	 * Main method parsing code and create flowchart
-	 * @param args cmd line arguments
+	 * @param args cmd line arguments, optionally a Java or chart file to open
 	 */
 	public static void main(String[] args) {
+		// Publish the telemetry probes to JMX clients such as JConsole
+		Telemetry.registerMBeans();
 		
 		// Run the GUI frame
 		javax.swing.SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 // Initialize GUI elements
             	init();
+            	
+            	// If a chart or Java file was given, open it on the canvas 
+            	// while the window is already responding
+            	if(args.length > 0) {
+            		if(args[0].endsWith(ChartFile.EXTENSION))
+            			openChart(args[0]);
+            		else
+            			parseCode(args[0]);
+            		return;
+            	}
                 
             	FlowchartBlock pre = null; // previous block handled
             	
@@ -55,29 +393,11 @@ public class BlockGUI extends JFrame {
         			null, c));
             	c.addBlock(pre = new DataBlock(pre.getOrigin().getX(), 
         			pre.getOrigin().getY() + FlowchartBlock.getHeight()
-        			+ BUFFER, "Print HelloWorld", pre, c));
+        			+ FlowchartBlock.getBuffer(), "Print HelloWorld", pre, c));
             	c.addBlock(pre = new TerminatorBlock(pre.getOrigin().getX(), 
         			pre.getOrigin().getY() + FlowchartBlock.getHeight()
-        			+ BUFFER, "End class HelloWorld", pre, c));
-            	
-            	// int i = 0; // loop index
-            	// Insert blocks loop-based like the parser (loop is contrived)
-        		/*while(i < 2) {
-        			// If inserting first block, insert at init coordinate
-        			if(pre == null)
-            			c.addBlock(pre = new TerminatorBlock(
-            				c.getInit_x(), c.getInit_y(), "class Hello World", 
-            				null, c));
-        			
-        			// Else insert below the previous block
-        			else
-            			c.addBlock(pre = new DataBlock(pre.getOrigin().getX(), 
-            				pre.getOrigin().getY() + FlowchartBlock.getHeight()
-            				+ BUFFER, "Print HelloWorld", pre, c));
-        			
-        			// Increment i
-        			i++;
-        		}*/
+        			+ FlowchartBlock.getBuffer(), "End class HelloWorld", 
+        			pre, c));
             }
         });
 	}
@@ -90,23 +410,111 @@ public class BlockGUI extends JFrame {
 class BlockCanvas extends JPanel 
 				  implements MouseListener,
 				  			 MouseMotionListener,
-				  			 Runnable {
+				  			 MouseWheelListener,
+				  			 EditorListener,
+				  			 BlockSink,
+				  			 Scrollable {
 	
 	// Default width and height
 	private static final int DEFAULT_WIDTH = 1000;
 	private static final int DEFAULT_HEIGHT = 1000;
+	
+	// Color of selected blocks and the selection rectangle
+	private static final Color SELECTED = new Color(0, 90, 200);
+	
+	// Smallest and largest zoom, and zoom change per mouse wheel notch
+	private static final double MIN_ZOOM = 0.05;
+	private static final double MAX_ZOOM = 8;
+	private static final double ZOOM_STEP = 1.1;
+	private static final int SCROLL_UNIT = 20; // pixels scrolled per notch
+	private static final int BATCH_SIZE = 2000; // blocks applied per batch
+	private static final int FRAME = 16; // ms between batches, for 60 fps
+	private static final long BATCH_BUDGET = 8000000; // ns spent per batch
+	private static final int OVERLAY_REFRESH = 500; // ms between updates
 
-	// ArrayList of blocks on the canvas
-	ArrayList<FlowchartBlock> blocks = new ArrayList<FlowchartBlock>();
+	// ArrayList of blocks on the canvas. Like the index and the rest of the
+	// canvas, it is only touched on the event dispatch thread.
+	private ArrayList<FlowchartBlock> blocks = new ArrayList<FlowchartBlock>();
 	
 	// ArrayList of blocks being acted on
-	ArrayList<FlowchartBlock> actionBlocks = new ArrayList<FlowchartBlock>();
+	private ArrayList<FlowchartBlock> actionBlocks = 
+		new ArrayList<FlowchartBlock>();
+	
+	// Blocks added, moved and removed by other threads, such as parsers, 
+	// waiting to be handed to the event dispatch thread in one batch
+	private ConcurrentLinkedQueue<FlowchartBlock> addedLater = 
+		new ConcurrentLinkedQueue<FlowchartBlock>();
+	private ConcurrentLinkedQueue<FlowchartBlock> movedLater = 
+		new ConcurrentLinkedQueue<FlowchartBlock>();
+	private ConcurrentLinkedQueue<FlowchartBlock> removedLater = 
+		new ConcurrentLinkedQueue<FlowchartBlock>();
+	private AtomicBoolean batchPending = new AtomicBoolean();
+	
+	// Timer applying the next batch a frame after the last one
+	private javax.swing.Timer batchTimer;
+	
+	// Store holding the data of blocks created for this canvas
+	private BlockStore store = new BlockStore();
+	
+	// Spatial index of blocks for hit-testing and painting, and the router
+	// of the lines between blocks, whose routes are indexed with them
+	private BlockIndex index = new BlockIndex();
+	private EdgeRouter router = new EdgeRouter(index);
+	
+	// Engine keeping the blocks laid out after edits, null if the blocks 
+	// are placed by hand
+	private LayoutEngine layoutEngine;
+	
+	// Changes made by dragging and editing blocks, for undo and redo
+	private CommandLog log = new CommandLog();
+	
+	// Blocks inside the area being painted
+	private ArrayList<FlowchartBlock> paintBlocks = 
+		new ArrayList<FlowchartBlock>();
+	
+	// Messages of blocks laid out into lines wrapped to the block width
+	private LabelCache labels = new LabelCache();
+	
+	// Selected blocks, dragged together by a single offset
+	private Selection selection = new Selection();
+	
+	// While dragging, an image of the blocks that aren't moving and the 
+	// area of the canvas it covers
+	private BufferedImage staticLayer;
+	private Rectangle layerBounds;
+	
+	// While dragging, the area the selected blocks cover before the drag, 
+	// the lines between selected and still blocks as pre and next pairs,
+	// and the area of the still ends of those lines
+	private Rectangle selectionBounds;
+	private ArrayList<FlowchartBlock> crossing = 
+		new ArrayList<FlowchartBlock>();
+	private Rectangle crossingBounds;
+	
+	// Rectangle being dragged out to select blocks, null if there is none
+	private Point bandStart;
+	private Rectangle band;
+
+	// Blocks drawn by the frame being painted
+	private int drawnCount = 0;
+	
+	// Whether the telemetry overlay is shown, and the timer refreshing it
+	private boolean showTelemetry = false;
+	private javax.swing.Timer telemetryTimer;
+
+	// Zoom of the canvas and the transform from chart to canvas coordinates
+	private double zoom = 1;
+	private AffineTransform view = new AffineTransform();
+	
+	// Right and bottom edges of the chart, including messages
+	private int chartWidth = 0;
+	private int chartHeight = 0;
 
 	// Initial x and y coordinates
 	private final double init_x;
 	private final double init_y = 50;
 
-	// Previous and current mouse event points on canvas
+	// Previous and current mouse event points on the chart
 	private Point prevPoint;
 	private Point currPoint;
 	
@@ -115,28 +523,56 @@ class BlockCanvas extends JPanel
 
 	// Storing previous block handled
 	private FlowchartBlock pre;
-	
-	private boolean editing = false;
 
 	/**
 	 * Constructor for BlockCanvas setting up the canvas and adding Event 
 	 * Handlers
 	 */
 	public BlockCanvas(EditorPanel editPane) {
-		// set the edit panel of this canvas
+		// set the edit panel of this canvas and listen for its edits
 		this.editPane = editPane;
+		editPane.addEditorListener(this);
+		editPane.setCommandLog(log);
 		
 		// Set background, size, and add event handlers
 		this.setBackground(Color.WHITE);
 		this.addMouseListener(this);
 		this.addMouseMotionListener(this);
+		this.addMouseWheelListener(this);
 		this.setSize(this.getPreferredSize());
+		index.setRouter(router);
+		batchTimer = new javax.swing.Timer(FRAME, e -> applyBatch());
+		batchTimer.setRepeats(false);
+		
+		// Undo with Ctrl+Z, redo with Ctrl+Y or Ctrl+Shift+Z
+		InputMap keys = getInputMap(WHEN_IN_FOCUSED_WINDOW);
+		keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, 
+			InputEvent.CTRL_DOWN_MASK), "undo");
+		keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, 
+			InputEvent.CTRL_DOWN_MASK), "redo");
+		keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, 
+			InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "redo");
+		getActionMap().put("undo", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				undo();
+			}
+		});
+		getActionMap().put("redo", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				redo();
+			}
+		});
+		
+		// Show or hide the telemetry overlay with F3
+		keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "telemetry");
+		getActionMap().put("telemetry", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				setShowTelemetry(!showTelemetry);
+			}
+		});
 		
 		// Set init x
 		init_x = (this.getWidth() - FlowchartBlock.getWidth())/2;
-		
-		// Start Runnable thread to check for repaints
-		new Thread(this).start();
 	}
 
 	/**
@@ -144,57 +580,534 @@ class BlockCanvas extends JPanel
 	 * @param g Graphics object to draw on canvas
 	 */
 	public void paintComponent(Graphics g) {
-		// Invoke Canvas' paintComponent
-		super.paintComponent(g);
-
-		// Use a casted Graphics2D object to draw all blocks and messages
+		// Use a casted Graphics2D object to draw the blocks and messages
 		Graphics2D g2 = (Graphics2D) g;
-		for (int i = 0; i < blocks.size(); i++) {
-			g2.draw(blocks.get(i).getBlock());
-			g2.drawString(blocks.get(i).getMsg(), blocks.get(i).getxStr(), 
-					blocks.get(i).getyStr());
-
-			// If there is a previous block, draw a line connecting them
-			if(blocks.get(i).getPre() != null)
-				g2.drawLine((int) blocks.get(i).getPre().getBottom().getX(), 
-					(int) blocks.get(i).getPre().getBottom().getY(), 
-					(int) blocks.get(i).getTop().getX(), 
-					(int) blocks.get(i).getTop().getY());
+		Rectangle clip = g.getClipBounds();
+		AffineTransform screen = g2.getTransform();
+		Telemetry.Span frame = Telemetry.FRAME.begin();
+		drawnCount = 0;
+		
+		// While dragging, copy the still blocks from the static layer and 
+		// only draw the selected blocks over them
+		if(staticLayer != null && (clip == null || 
+				layerBounds.contains(clip))) {
+			g2.drawImage(staticLayer, layerBounds.x, layerBounds.y, null);
+			g2.transform(view);
+			drawSelection(g2, g2.getClipBounds());
+		} else {
+			// Invoke Canvas' paintComponent
+			super.paintComponent(g);
+			
+			// Draw in chart coordinates, only the blocks in the clip
+			g2.transform(view);
+			if(selection.isMoved()) {
+				drawBlocks(g2, g2.getClipBounds(), true);
+				drawSelection(g2, g2.getClipBounds());
+			} else {
+				drawBlocks(g2, g2.getClipBounds(), false);
+			}
+			
+			// Draw the selection rectangle being dragged out
+			if(band != null) {
+				g2.setColor(SELECTED);
+				g2.draw(band);
+			}
+		}
+		frame.end(drawnCount);
+		
+		// Lines routed again while painting may reach outside the clip
+		Rectangle rerouted = router.takeRerouted();
+		if(rerouted != null && clip != null) {
+			rerouted.grow(1, 1);
+			Rectangle area = toCanvas(rerouted);
+			if(!clip.contains(area))
+				repaint(area);
+		}
+		
+		// Draw the overlay over the chart, in canvas coordinates
+		if(showTelemetry) {
+			g2.setTransform(screen);
+			drawTelemetry(g2);
+		}
+	}
+	
+	/**
+	 * Draw the telemetry overlay in the top left corner of the view: how 
+	 * often each probe ran and how long it took
+	 * @param g2 Graphics2D object to draw on, in canvas coordinates
+	 */
+	private void drawTelemetry(Graphics2D g2) {
+		Telemetry.Probe[] probes = Telemetry.getProbes();
+		Rectangle area = getTelemetryBounds();
+		g2.setColor(new Color(255, 255, 255, 220));
+		g2.fill(area);
+		g2.setColor(Color.DARK_GRAY);
+		g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		int lineHeight = g2.getFontMetrics().getHeight();
+		int y = area.y + lineHeight;
+		g2.drawString(String.format("%-8s %8s %10s %8s %8s %8s", "", "runs", 
+			"blocks", "mean ms", "p99 ms", "max ms"), area.x + 5, y);
+		for (int i = 0; i < probes.length; i++) {
+			y += lineHeight;
+			g2.drawString(String.format("%-8s %8d %10d %8.2f %8.2f %8.2f", 
+				probes[i].getName(), probes[i].getCount(), 
+				probes[i].getBlocks(), probes[i].getMeanMillis(), 
+				probes[i].getP99Millis(), probes[i].getMaxMillis()), 
+				area.x + 5, y);
+		}
+	}
+	
+	/**
+	 * Get the area of the telemetry overlay
+	 * @return the overlay's area in canvas coordinates
+	 */
+	private Rectangle getTelemetryBounds() {
+		Rectangle visible = getVisibleRect();
+		int lineHeight = getFontMetrics(new Font(Font.MONOSPACED, Font.PLAIN, 
+			12)).getHeight();
+		return new Rectangle(visible.x, visible.y, 480, 
+			lineHeight * (Telemetry.getProbes().length + 1) + 10);
+	}
+	
+	/**
+	 * Show or hide the telemetry overlay, which is refreshed twice a second
+	 * while shown
+	 * @param show true to show the overlay
+	 */
+	public void setShowTelemetry(boolean show) {
+		showTelemetry = show;
+		if(telemetryTimer == null)
+			telemetryTimer = new javax.swing.Timer(OVERLAY_REFRESH, 
+				e -> repaint(getTelemetryBounds()));
+		if(show)
+			telemetryTimer.start();
+		else
+			telemetryTimer.stop();
+		repaint();
+	}
+	
+	/**
+	 * Draw the selected blocks moved by the selection's offset. They are
+	 * still indexed where they were before the drag, so they are looked up
+	 * there and drawn shifted.
+	 * @param g2 Graphics2D object to draw on
+	 * @param clip area to draw, may be null
+	 */
+	private void drawSelection(Graphics2D g2, Rectangle clip) {
+		int dx = selection.getOffsetX();
+		int dy = selection.getOffsetY();
+		Color color = g2.getColor();
+		g2.setColor(SELECTED);
+		
+		java.util.List<FlowchartBlock> drawn = selection.getBlocks();
+		if(clip != null) {
+			clip = new Rectangle(clip);
+			clip.translate(-dx, -dy);
+			paintBlocks.clear();
+			index.blocksIn(clip, paintBlocks);
+			drawn = paintBlocks;
+		}
+		g2.translate(dx, dy);
+		for (int i = 0; i < drawn.size(); i++) {
+			FlowchartBlock block = drawn.get(i);
+			if(selection.contains(block))
+				drawBlock(g2, block, selection.contains(block.getPre()));
+		}
+		g2.translate(-dx, -dy);
+		
+		// Lines between selected and still blocks stretch with the drag, in
+		// the color of the block they lead to
+		for (int i = 0; i < crossing.size(); i += 2) {
+			FlowchartBlock pre = crossing.get(i);
+			FlowchartBlock next = crossing.get(i + 1);
+			boolean preMoved = selection.contains(pre);
+			g2.setColor(preMoved ? color : SELECTED);
+			g2.drawLine((int) pre.getBottom().getX() + (preMoved ? dx : 0), 
+				(int) pre.getBottom().getY() + (preMoved ? dy : 0), 
+				(int) next.getTop().getX() + (preMoved ? 0 : dx), 
+				(int) next.getTop().getY() + (preMoved ? 0 : dy));
+		}
+		g2.setColor(color);
+	}
+	
+	/**
+	 * Draw the blocks inside an area, or all blocks if there is no area
+	 * @param g2 Graphics2D object to draw on
+	 * @param clip area to draw, may be null
+	 * @param still true to leave out the selected blocks while they are
+	 * dragged
+	 */
+	private void drawBlocks(Graphics2D g2, Rectangle clip, boolean still) {
+		// Only draw the blocks inside the clip, if there is one
+		ArrayList<FlowchartBlock> drawn = blocks;
+		if(clip != null) {
+			clip = new Rectangle(clip);
+			paintBlocks.clear();
+			index.blocksIn(clip, paintBlocks);
+			drawn = paintBlocks;
 		}
+
+		Color color = g2.getColor();
+		for (int i = 0; i < drawn.size(); i++) {
+			FlowchartBlock block = drawn.get(i);
+			boolean selected = selection.contains(block);
+			if(still && selected)
+				continue;
+			g2.setColor(selected ? SELECTED : color);
+			drawBlock(g2, block, !still || !selection.contains(block.getPre()));
+		}
+		g2.setColor(color);
 	}
+	
+	/**
+	 * Draw a block, its message and optionally the line to its pre block
+	 * @param g2 Graphics2D object to draw on
+	 * @param block block to draw
+	 * @param preLine true to draw the line to the block's pre
+	 */
+	private void drawBlock(Graphics2D g2, FlowchartBlock block, 
+			boolean preLine) {
+		drawnCount++;
+		
+		// Draw the type's shared shape at the block's origin
+		Point origin = block.getOrigin();
+		g2.translate(origin.x, origin.y);
+		g2.draw(block.getTemplate());
+		g2.translate(-origin.x, -origin.y);
+		labels.draw(g2, block);
 
+		// If there is a previous block, draw a line connecting them
+		if(preLine && block.getPre() != null)
+			drawLine(g2, block.getPre(), block);
+	}
+	
 	/**
-	 * Get preferred (default) size for the canvas
+	 * Draw the line connecting two blocks along its cached route
+	 * @param g2 Graphics2D object to draw on
+	 * @param pre block the line starts at the bottom of
+	 * @param next block the line ends at the top of
+	 */
+	private void drawLine(Graphics2D g2, FlowchartBlock pre, 
+			FlowchartBlock next) {
+		g2.draw(router.getRoute(next));
+	}
+	
+	/**
+	 * Draw all blocks that aren't selected into the static layer
+	 */
+	private void paintStaticLayer() {
+		layerBounds = getVisibleRect();
+		if(layerBounds.isEmpty())
+			return;
+		
+		// Use an image matching the screen if there is one
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		staticLayer = gc != null ? gc.createCompatibleImage(
+			layerBounds.width, layerBounds.height) : new BufferedImage(
+			layerBounds.width, layerBounds.height, BufferedImage.TYPE_INT_RGB);
+		
+		// Draw the still blocks the same way paintComponent would
+		Graphics2D g2 = staticLayer.createGraphics();
+		g2.setColor(getBackground());
+		g2.fillRect(0, 0, layerBounds.width, layerBounds.height);
+		g2.setColor(getForeground());
+		g2.setFont(getFont());
+		g2.translate(-layerBounds.x, -layerBounds.y);
+		g2.transform(view);
+		drawBlocks(g2, toChart(layerBounds), true);
+		g2.dispose();
+	}
+
+
+	/**
+	 * Get preferred size for the canvas, large enough to show the whole 
+	 * chart at the current zoom
 	 */
 	public Dimension getPreferredSize() {
-		return new Dimension(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+		return new Dimension(
+			(int) Math.ceil(Math.max(DEFAULT_WIDTH, chartWidth) * zoom), 
+			(int) Math.ceil(Math.max(DEFAULT_HEIGHT, chartHeight) * zoom));
+	}
+	
+	/**
+	 * Grow the chart size to fit a block, resizing the canvas if needed
+	 * @param block block that was added or moved
+	 */
+	private void growChart(FlowchartBlock block) {
+		int width = (int) (block.getX() + FlowchartBlock.getWidth()) + 
+			FlowchartBlock.getBuffer();
+		int height = (int) (block.getY() + FlowchartBlock.getHeight()) + 
+			FlowchartBlock.getBuffer();
+		if(width > chartWidth || height > chartHeight) {
+			chartWidth = Math.max(chartWidth, width);
+			chartHeight = Math.max(chartHeight, height);
+			revalidate();
+		}
+	}
+	
+	/**
+	 * Getter for zoom
+	 * @return the zoom of the canvas, 1 for actual size
+	 */
+	public double getZoom() {
+		return zoom;
+	}
+	
+	/**
+	 * Setter for zoom
+	 * @param zoom new zoom of the canvas, 1 for actual size
+	 */
+	public void setZoom(double zoom) {
+		this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+		view = AffineTransform.getScaleInstance(this.zoom, this.zoom);
+		revalidate();
+		repaint();
+	}
+	
+	/**
+	 * Convert a point on the canvas to a point on the chart
+	 * @param e mouse event at the point
+	 * @return the point on the chart
+	 */
+	private Point toChart(MouseEvent e) {
+		return new Point((int) Math.round(e.getX() / zoom), 
+			(int) Math.round(e.getY() / zoom));
+	}
+	
+	/**
+	 * Convert an area of the canvas to an area of the chart
+	 * @param r area of the canvas
+	 * @return the area of the chart it shows
+	 */
+	private Rectangle toChart(Rectangle r) {
+		try {
+			return view.createInverse().createTransformedShape(r).getBounds();
+		} catch (NoninvertibleTransformException e) {
+			return r; // can't happen, zoom is never 0
+		}
+	}
+	
+	/**
+	 * Convert an area of the chart to an area of the canvas
+	 * @param r area of the chart
+	 * @return the area of the canvas showing it
+	 */
+	private Rectangle toCanvas(Rectangle r) {
+		return view.createTransformedShape(r).getBounds();
 	}
 
 	/**
-	 * Add a block to the canvas
+	 * Add a block to the canvas. Blocks added from other threads are added 
+	 * on the event dispatch thread with the next batch.
 	 * @param block block being added to the canvas
 	 */
 	public void addBlock(FlowchartBlock block) {
-		// Add the block to the ArrayList and repaint the canvas
+		if(!SwingUtilities.isEventDispatchThread()) {
+			addedLater.add(block);
+			scheduleBatch();
+			return;
+		}
+		
+		// Add the block to the ArrayList and index and repaint the canvas
 		blocks.add(block);
+		block.setCanv(this);
+		index.add(block);
+		router.invalidate(getShapeBounds(block));
+		growChart(block);
 		this.setPre(block.getPre());
 		repaint();
 	}
-
+	
+	/**
+	 * Remove a block from the canvas and free it in its store. Blocks 
+	 * removed from other threads are removed on the event dispatch thread 
+	 * with the next batch, so they are never painted after they were freed.
+	 * @param block block to remove
+	 */
+	public void removeBlock(FlowchartBlock block) {
+		if(!SwingUtilities.isEventDispatchThread()) {
+			removedLater.add(block);
+			scheduleBatch();
+			return;
+		}
+		blocks.remove(block);
+		actionBlocks.remove(block);
+		selection.remove(block);
+		index.remove(block);
+		labels.remove(block);
+		router.remove(block);
+		router.invalidate(getShapeBounds(block));
+		if(pre == block)
+			pre = null;
+		
+		// Only free the block once nothing on the canvas can reach it
+		if(!block.getStore().isRemoved(block.getId()))
+			block.getStore().remove(block.getId());
+		repaint();
+	}
+	
 	/**
-	 * Event handler for mouse presses, stores prevPoint and get all objects
-	 * pressed on
+	 * Make sure the blocks changed by other threads are handed to the event
+	 * dispatch thread. However many blocks a parser streams in, only one
+	 * batch is waiting at a time.
+	 */
+	private void scheduleBatch() {
+		if(batchPending.compareAndSet(false, true))
+			SwingUtilities.invokeLater(this::applyBatch);
+	}
+	
+	/**
+	 * Check if blocks changed by other threads are waiting for a batch
+	 * @return true if any blocks are queued
+	 */
+	private boolean hasQueued() {
+		return !addedLater.isEmpty() || !movedLater.isEmpty() || 
+			!removedLater.isEmpty();
+	}
+	
+	/**
+	 * Apply the blocks added, moved and removed by other threads since the
+	 * last batch, then repaint once. Only so many blocks are applied at a 
+	 * time, and the rest wait for the next frame, so the canvas keeps 
+	 * painting at full rate while a large chart streams in.
+	 */
+	private void applyBatch() {
+		long deadline = System.nanoTime() + BATCH_BUDGET;
+		FlowchartBlock block;
+		int n = 0;
+		while(inBatch(n++, deadline) && (block = addedLater.poll()) != null)
+			addBlock(block);
+		while(inBatch(n++, deadline) && (block = movedLater.poll()) != null)
+			blockMoved(block);
+		
+		// A block can't be removed before it was added
+		while(inBatch(n++, deadline) && addedLater.isEmpty() && 
+				(block = removedLater.poll()) != null)
+			removeBlock(block);
+		repaint();
+		
+		// The batch stays pending until the queues are empty, so blocks 
+		// queued meanwhile wait for the next frame too
+		if(hasQueued()) {
+			batchTimer.restart();
+			return;
+		}
+		batchPending.set(false);
+		
+		// Catch blocks queued while the batch was still pending
+		if(hasQueued())
+			scheduleBatch();
+	}
+	
+	/**
+	 * Check if a batch has room for another block
+	 * @param n blocks applied so far
+	 * @param deadline time the batch has to end by, from System.nanoTime
+	 * @return true if another block can be applied
+	 */
+	private static boolean inBatch(int n, long deadline) {
+		// Only read the clock every so often, it isn't free either
+		return n < BATCH_SIZE && (n % 64 != 0 || 
+			System.nanoTime() < deadline);
+	}
+	
+	/**
+	 * Remove all blocks from the canvas, including blocks still queued by
+	 * other threads, and forget the edits made to them
+	 */
+	public void clear() {
+		addedLater.clear();
+		movedLater.clear();
+		removedLater.clear();
+		blocks.clear();
+		actionBlocks.clear();
+		selection.clear();
+		index = new BlockIndex();
+		router = new EdgeRouter(index);
+		index.setRouter(router);
+		labels.clear();
+		log.clear();
+		pre = null;
+		chartWidth = 0;
+		chartHeight = 0;
+		revalidate();
+		repaint();
+	}
+	
+	/**
+	 * Calculate the area that has to be repainted when a block moves: the 
+	 * block with its message and the lines to its pre and next blocks
+	 * @param block block being moved
+	 * @return the area covered by the block and its lines
+	 */
+	private Rectangle getDirtyBounds(FlowchartBlock block) {
+		Rectangle bounds = index.bounds(block);
+		if(block.getNext() != null)
+			bounds.add(index.bounds(block.getNext()));
+		
+		// Grow by a pixel on each side for the outline strokes
+		bounds.grow(1, 1);
+		return bounds;
+	}
+	
+	/**
+	 * Event handler for mouse press, selecting the blocks pressed on or 
+	 * starting a selection rectangle
 	 * @param e MouseEvent occurred
 	 */
 	@Override
 	public void mousePressed(MouseEvent e) {
 		// Store prevPoint as location of mouse press
-		prevPoint = new Point(e.getX(), e.getY());
+		prevPoint = toChart(e);
 
-		// Loop through blocks to get the ones pressed on
-		for (int i = 0; i < blocks.size(); i++) {
-			if(blocks.get(i).containsPoint(prevPoint))
-				actionBlocks.add(blocks.get(i));
+		// Look up the blocks pressed on in the index
+		Telemetry.Span hitTest = Telemetry.HIT_TEST.begin();
+		actionBlocks.clear();
+		blocksAt(prevPoint, actionBlocks);
+		hitTest.end(actionBlocks.size());
+		
+		// Pressing a selected block drags the whole selection
+		for (int i = 0; i < actionBlocks.size(); i++) {
+			if(selection.contains(actionBlocks.get(i)))
+				return;
+		}
+		
+		// Otherwise the blocks pressed on become the selection, or are 
+		// added to it with shift held
+		if(!e.isShiftDown())
+			selection.clear();
+		for (int i = 0; i < actionBlocks.size(); i++)
+			selection.add(actionBlocks.get(i));
+		
+		// Pressing empty space starts a selection rectangle
+		if(actionBlocks.isEmpty())
+			bandStart = prevPoint;
+		repaint();
+	}
+	
+	/**
+	 * Get the blocks containing a point, with the selected blocks where 
+	 * they are being dragged to
+	 * @param p point on the chart
+	 * @param result list the blocks are added to
+	 */
+	private void blocksAt(Point p, java.util.List<FlowchartBlock> result) {
+		int start = result.size();
+		index.blocksAt(p, result);
+		if(!selection.isMoved())
+			return;
+		
+		// Selected blocks are indexed where they were before the drag
+		for (int i = result.size() - 1; i >= start; i--) {
+			if(selection.contains(result.get(i)))
+				result.remove(i);
+		}
+		paintBlocks.clear();
+		index.blocksAt(new Point(p.x - selection.getOffsetX(), 
+			p.y - selection.getOffsetY()), paintBlocks);
+		for (int i = 0; i < paintBlocks.size(); i++) {
+			if(selection.contains(paintBlocks.get(i)))
+				result.add(paintBlocks.get(i));
 		}
 	}
 
@@ -206,10 +1119,61 @@ class BlockCanvas extends JPanel
 	@Override
 	public void mouseReleased(MouseEvent e) {
 		// set prevPoint to currentPoint
-		prevPoint = new Point(e.getX(), e.getY());
+		prevPoint = toChart(e);
 
-		// clear all action blocks
+		// Move the selected blocks to where they were dragged, as one step 
+		// to undo
+		if(selection.isMoved()) {
+			// The last frame of the drag has to be repainted where the 
+			// blocks were shown and where their lines stretched to
+			Rectangle dirty = null;
+			if(selectionBounds != null) {
+				dirty = new Rectangle(selectionBounds);
+				dirty.translate(selection.getOffsetX(), 
+					selection.getOffsetY());
+				dirty.add(selectionBounds);
+				if(crossingBounds != null)
+					dirty.add(crossingBounds);
+			}
+			
+			Telemetry.Span moving = Telemetry.MOVE.begin();
+			selection.commit(log);
+			log.endStep();
+			moving.end(selection.size());
+			
+			// And where the blocks and their lines are now
+			java.util.List<FlowchartBlock> selected = selection.getBlocks();
+			for (int i = 0; i < selected.size(); i++) {
+				Rectangle bounds = getDirtyBounds(selected.get(i));
+				if(dirty == null)
+					dirty = bounds;
+				else
+					dirty.add(bounds);
+			}
+			if(dirty != null)
+				repaint(toCanvas(dirty));
+		}
+		
+		// Select the blocks inside the selection rectangle
+		if(band != null) {
+			paintBlocks.clear();
+			index.blocksIn(band, paintBlocks);
+			for (int i = 0; i < paintBlocks.size(); i++) {
+				if(paintBlocks.get(i).intersects(band))
+					selection.add(paintBlocks.get(i));
+			}
+			repaint(toCanvas(band));
+		}
+		bandStart = null;
+		band = null;
+		
+		// clear all action blocks and drop the static layer
 		actionBlocks.clear();
+		staticLayer = null;
+		layerBounds = null;
+		selectionBounds = null;
+		crossing.clear();
+		crossingBounds = null;
 	}
 
 	/**
@@ -219,24 +1183,88 @@ class BlockCanvas extends JPanel
 	@Override
 	public void mouseDragged(MouseEvent e) {
 		// Calculate change in coordinates
-		currPoint = new Point(e.getX(), e.getY());
+		currPoint = toChart(e);
 		double deltaX = currPoint.getX() - prevPoint.getX();
 		double deltaY = currPoint.getY() - prevPoint.getY();
 
-		// Move dragged blocks and repaint
-		for (int i = 0; i < actionBlocks.size(); i++) {
-			actionBlocks.get(i).move(deltaX, deltaY);
-			actionBlocks.get(i).setxStr(actionBlocks.get(i).getxStr() + 
-					(int)deltaX);
-			actionBlocks.get(i).setyStr(actionBlocks.get(i).getyStr() + 
-					(int)deltaY);
+		// Stretch the selection rectangle from where the drag started
+		if(bandStart != null) {
+			Rectangle dirty = band != null ? band : new Rectangle(bandStart);
+			band = new Rectangle(bandStart);
+			band.add(currPoint);
+			dirty = dirty.union(band);
+			dirty.grow(1, 1);
+			repaint(toCanvas(dirty));
+			prevPoint = currPoint;
+			return;
 		}
-		repaint();
+		
+		// Nothing to repaint if no blocks are dragged
+		if(selection.isEmpty() || actionBlocks.isEmpty()) {
+			prevPoint = currPoint;
+			return;
+		}
+		
+		// When a drag starts, draw the blocks that will stay still once and
+		// find the area the selected blocks and their lines cover
+		if(selectionBounds == null)
+			startDrag();
+		
+		// Only the offset of the selection moves, so repaint the area it 
+		// left and entered and the lines stretching to it
+		Rectangle dirty = new Rectangle(selectionBounds);
+		dirty.translate(selection.getOffsetX(), selection.getOffsetY());
+		selection.translate(deltaX, deltaY);
+		Rectangle moved = new Rectangle(selectionBounds);
+		moved.translate(selection.getOffsetX(), selection.getOffsetY());
+		dirty.add(moved);
+		if(crossingBounds != null)
+			dirty.add(crossingBounds);
+		repaint(toCanvas(dirty));
 
 		// Set prevPoint to be currPoint;
 		prevPoint = currPoint;
 	}
 
+	/**
+	 * Get ready to drag the selection: draw the still blocks into the 
+	 * static layer and find the lines between selected and still blocks
+	 */
+	private void startDrag() {
+		java.util.List<FlowchartBlock> selected = selection.getBlocks();
+		selectionBounds = getDirtyBounds(selected.get(0));
+		for (int i = 0; i < selected.size(); i++) {
+			FlowchartBlock block = selected.get(i);
+			selectionBounds.add(getDirtyBounds(block));
+			
+			// Lines from still pre blocks and to still next blocks
+			FlowchartBlock pre = block.getPre();
+			FlowchartBlock next = block.getNext();
+			if(pre != null && !selection.contains(pre))
+				addCrossing(pre, block, pre.getBottom());
+			if(next != null && !selection.contains(next))
+				addCrossing(block, next, next.getTop());
+		}
+		paintStaticLayer();
+	}
+	
+	/**
+	 * Add a line between a selected and a still block
+	 * @param pre block the line starts at
+	 * @param next block the line ends at
+	 * @param still end of the line at the still block
+	 */
+	private void addCrossing(FlowchartBlock pre, FlowchartBlock next, 
+			Point still) {
+		crossing.add(pre);
+		crossing.add(next);
+		if(crossingBounds == null)
+			crossingBounds = new Rectangle(still);
+		else
+			crossingBounds.add(still);
+		crossingBounds.grow(1, 1);
+	}
+
 	/**
 	 * Event handler for mouse clicks, editing messages of blocks clicked on
 	 * and stores prevPoint
@@ -244,15 +1272,24 @@ class BlockCanvas extends JPanel
 	 */
 	@Override
 	public void mouseClicked(MouseEvent e) {
-		// Store prevPoint and set editing to true
-		prevPoint = new Point(e.getX(), e.getY());
-		editing = true;
+		// Store prevPoint
+		prevPoint = toChart(e);
 		
 		// get all blocks clicked on
-		for (int i = 0; i < blocks.size(); i++) {
-			if(blocks.get(i).containsPoint(prevPoint)) {
-				actionBlocks.add(blocks.get(i));
-			}
+		Telemetry.Span hitTest = Telemetry.HIT_TEST.begin();
+		actionBlocks.clear();
+		blocksAt(prevPoint, actionBlocks);
+		hitTest.end(actionBlocks.size());
+		if(actionBlocks.isEmpty())
+			return;
+
+		// If the editor pane is waiting for a block to relink to, hand it the
+		// first block clicked on instead of starting a new edit
+		if(getEditPane().isRelinking()) {
+			if(actionBlocks.size() > 0)
+				getEditPane().relinkTo(actionBlocks.get(0));
+			actionBlocks.clear();
+			return;
 		}
 
 		// Enable the editor pane and add all action blocks for it to edit
@@ -268,6 +1305,63 @@ class BlockCanvas extends JPanel
 		actionBlocks.clear();
 	}
 
+	/**
+	 * Event handler for the mouse wheel, zooming around the mouse when 
+	 * control is held and scrolling otherwise
+	 * @param e MouseWheelEvent occurred
+	 */
+	@Override
+	public void mouseWheelMoved(MouseWheelEvent e) {
+		// Let the scroll pane scroll if not zooming
+		if(!e.isControlDown()) {
+			if(getParent() != null && getParent().getParent() != null)
+				getParent().getParent().dispatchEvent(
+					SwingUtilities.convertMouseEvent(this, e, 
+					getParent().getParent()));
+			return;
+		}
+		
+		// Zoom, then scroll so the same chart point stays under the mouse
+		Point chart = toChart(e);
+		double oldZoom = zoom;
+		setZoom(zoom * Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()));
+		if(getParent() instanceof JViewport) {
+			JViewport viewport = (JViewport) getParent();
+			Point pos = viewport.getViewPosition();
+			pos.x += (int) Math.round(chart.getX() * (zoom - oldZoom));
+			pos.y += (int) Math.round(chart.getY() * (zoom - oldZoom));
+			viewport.setViewSize(getPreferredSize());
+			viewport.setViewPosition(new Point(Math.max(pos.x, 0), 
+				Math.max(pos.y, 0)));
+		}
+	}
+
+	// Scrollable methods, showing the default size of the canvas and 
+	// scrolling by a few pixels per notch
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return new Dimension(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+	}
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, 
+			int orientation, int direction) {
+		return SCROLL_UNIT;
+	}
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, 
+			int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL ? 
+			visibleRect.height : visibleRect.width;
+	}
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return false;
+	}
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+
 	// Unused MouseMotionListener and MouseListener methods
 	@Override
 	public void mouseMoved(MouseEvent e) {}
@@ -277,29 +1371,84 @@ class BlockCanvas extends JPanel
 	public void mouseExited(MouseEvent e) {}
 
 	/**
-	 * This method is executed in a separate thread to constantly check for repaints
+	 * Update the spatial index after a block on this canvas moved. Blocks 
+	 * moved by other threads are re-indexed with the next batch.
+	 * @param block block that moved
 	 */
-	@Override
-	public void run() {
-		// Get the current number of the editor panel's editing blocks
-		int prevSize = editPane.getEditedBlocks().size();
-		
-		// Start an infinite loop
-		while(true) {
-			// If canvas is editing and number of edited blocks decreased, repaint
-			if(editing == true && editPane.getEditedBlocks().size() < prevSize) {
-				repaint();
-				
-				// If editing panel is done with editing, set editing to false
-				if(editPane.getEditedBlocks().size() == 0)
-					editing = false;
-			
-			// If not, recalculate prevSize
-			} else {
-				prevSize = editPane.getEditedBlocks().size();
-				System.out.print(""); // it doesn't work without this line lmao
-			}
+	public void blockMoved(FlowchartBlock block) {
+		if(!SwingUtilities.isEventDispatchThread()) {
+			movedLater.add(block);
+			scheduleBatch();
+			return;
 		}
+		
+		// The line to the next block moved with this block too, and the 
+		// lines the block moved into the way of have to go around it
+		growChart(block);
+		index.update(block);
+		if(block.getNext() != null)
+			index.update(block.getNext());
+		router.invalidate(getShapeBounds(block));
+	}
+	
+	/**
+	 * Get the area of a block's shape, without its line to pre
+	 * @param block block to get the area of
+	 * @return the bounds of the block's shape
+	 */
+	private static Rectangle getShapeBounds(FlowchartBlock block) {
+		return new Rectangle((int) block.getX(), (int) block.getY(), 
+			(int) FlowchartBlock.getWidth(), (int) FlowchartBlock.getHeight());
+	}
+
+	/**
+	 * Repaint a block after the editor panel changed its message. Its 
+	 * label is laid out again when it is drawn, since the message changed.
+	 * @param block block whose message changed
+	 */
+	@Override
+	public void messageEdited(FlowchartBlock block) {
+		repaint(toCanvas(getDirtyBounds(block)));
+	}
+
+	/**
+	 * Repaint after the editor panel is done with a block
+	 * @param block block that is no longer being edited
+	 */
+	@Override
+	public void editingDone(FlowchartBlock block) {
+		// A new message may open or close a block of code
+		if(layoutEngine != null)
+			layoutEngine.update(block);
+		repaint();
+	}
+
+	/**
+	 * Repaint after the editor panel changed a block's pre or next
+	 * @param block block whose links changed
+	 */
+	@Override
+	public void blockRelinked(FlowchartBlock block) {
+		linksRestored(block);
+		
+		// Relinking can change any chain, so lay out all of them once, in
+		// the same step as the relink so undo moves the blocks back
+		if(layoutEngine != null)
+			layoutEngine.layout(store, log);
+		repaint();
+	}
+	
+	/**
+	 * Re-index a block after undo or redo changed its pre or next back. 
+	 * The log moves the blocks back too, so nothing is laid out.
+	 * @param block block whose links changed
+	 */
+	public void linksRestored(FlowchartBlock block) {
+		// Re-index the blocks whose line to pre changed
+		index.update(block);
+		if(block.getNext() != null)
+			index.update(block.getNext());
+		repaint();
 	}
 	
 	/**
@@ -318,6 +1467,43 @@ class BlockCanvas extends JPanel
 		this.pre = pre;
 	}
 
+	/**
+	 * Getter for store
+	 * @return the store holding the blocks created for this canvas
+	 */
+	public BlockStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Setter for store
+	 * @param store new store for blocks created for this canvas
+	 */
+	public void setStore(BlockStore store) {
+		this.store = store;
+		log.clear();
+		selection.clear();
+		labels.clear();
+		router.clear();
+	}
+
+	/**
+	 * Getter for layoutEngine
+	 * @return the engine laying out the blocks, or null
+	 */
+	public LayoutEngine getLayoutEngine() {
+		return layoutEngine;
+	}
+
+	/**
+	 * Setter for layoutEngine
+	 * @param layoutEngine engine to lay out the blocks after edits, or null
+	 * to leave them where they are
+	 */
+	public void setLayoutEngine(LayoutEngine layoutEngine) {
+		this.layoutEngine = layoutEngine;
+	}
+
 	/**
 	 * Getter for editPane
 	 * @return the canvas's editor panel
@@ -331,7 +1517,39 @@ class BlockCanvas extends JPanel
 	 * @param editPane new editor panel for canvas
 	 */
 	public void setEditPane(EditorPanel editPane) {
+		// Stop listening to the old panel and start listening to the new one
+		this.editPane.removeEditorListener(this);
 		this.editPane = editPane;
+		editPane.addEditorListener(this);
+		editPane.setCommandLog(log);
+	}
+	
+	/**
+	 * Undo the last drag or edit
+	 * @return true if there was something to undo
+	 */
+	public boolean undo() {
+		boolean undone = log.undo();
+		repaint();
+		return undone;
+	}
+	
+	/**
+	 * Redo the last drag or edit undone
+	 * @return true if there was something to redo
+	 */
+	public boolean redo() {
+		boolean redone = log.redo();
+		repaint();
+		return redone;
+	}
+	
+	/**
+	 * Getter for log
+	 * @return the changes made to the blocks on this canvas
+	 */
+	public CommandLog getCommandLog() {
+		return log;
 	}
 
 	/**
@@ -364,10 +1582,21 @@ class EditorPanel extends JPanel {
 	private JButton doneButton = new JButton("Done");
 	private JLabel prompt = new JLabel("Drag block to move. Click block to edit.");
 
-	// ArrayList of blocks on the canvas
-	ArrayList<FlowchartBlock> editedBlocks = new ArrayList<FlowchartBlock>();
+	// ArrayList of blocks being edited, only touched on the event dispatch
+	// thread
+	private ArrayList<FlowchartBlock> editedBlocks = 
+		new ArrayList<FlowchartBlock>();
+	
+	// Listeners notified whenever an edited block changes
+	private ArrayList<EditorListener> listeners = 
+		new ArrayList<EditorListener>();
+	
+	// Log the edits are recorded in, may be null
+	private CommandLog log;
 	
 	private boolean editMsgFlag = false; // flag if a block's msg is edited
+	private boolean changePreFlag = false; // flag if a block's pre is changed
+	private boolean changeNextFlag = false; // flag if a block's next is changed
 	
 	/**
 	 * Constructor for EditorPanel
@@ -409,6 +1638,26 @@ class EditorPanel extends JPanel {
 			}
 		});
 		
+		// Add action listeners for change pre and change next buttons
+		changePreButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if(editedBlocks.size() > 0) {
+					getPrompt().setText("Click the new previous block.");
+					changePreFlag = true; // wait for a block to be clicked
+					changeNextFlag = false;
+				}
+			}
+		});
+		changeNextButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if(editedBlocks.size() > 0) {
+					getPrompt().setText("Click the new next block.");
+					changeNextFlag = true; // wait for a block to be clicked
+					changePreFlag = false;
+				}
+			}
+		});
+		
 		// Add action listener for done button
 		doneButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -416,12 +1665,21 @@ class EditorPanel extends JPanel {
 				if(editedBlocks.size() > 0) {
 					// If editing msg, change the 0th edited block's msg
 					if(editMsgFlag) {
+						if(log != null)
+							log.changingMsg(getEditedBlocks().get(0));
 						getEditedBlocks().get(0).setMsg(msgEditor.getText());
+						if(log != null)
+							log.endStep();
 						editMsgFlag = false; // set edit msg flag to false
+						fireMessageEdited(getEditedBlocks().get(0));
 					}
 					
+					// Stop waiting for a block to relink to
+					changePreFlag = false;
+					changeNextFlag = false;
+					
 					// Remove the edited block from the ArrayList
-					editedBlocks.remove(0);
+					fireEditingDone(editedBlocks.remove(0));
 					
 					// Disable text box
 					msgEditor.setText("");
@@ -456,6 +1714,101 @@ class EditorPanel extends JPanel {
 		doneButton.setEnabled(b);
 	}
 	
+	/**
+	 * Check if the panel is waiting for a block to relink to
+	 * @return true if change pre or change next was pressed
+	 */
+	public boolean isRelinking() {
+		return changePreFlag || changeNextFlag;
+	}
+	
+	/**
+	 * Link the 0th edited block to another block, as its pre or next 
+	 * depending on which button was pressed
+	 * @param target block to link the edited block to
+	 */
+	public void relinkTo(FlowchartBlock target) {
+		FlowchartBlock block = editedBlocks.get(0);
+		
+		// Blocks can't be linked to themselves
+		if(target != block) {
+			// Record the links of every block that can lose or gain one
+			FlowchartBlock pre = changePreFlag ? target : block;
+			FlowchartBlock next = changePreFlag ? block : target;
+			if(log != null) {
+				log.changingLinks(pre);
+				log.changingLinks(pre.getNext());
+				log.changingLinks(next);
+				log.changingLinks(next.getPre());
+			}
+			// The layout after the relink is part of the same step
+			link(pre, next);
+			fireBlockRelinked(block);
+			if(log != null)
+				log.endStep();
+		}
+		
+		// Go back to waiting for a button press
+		changePreFlag = false;
+		changeNextFlag = false;
+		getPrompt().setText("Editing " + block.getType() + 
+			" block with message: " + block.getMsg() + ". Press any button.");
+	}
+	
+	/**
+	 * Link two blocks, detaching them from the blocks they were linked to
+	 * @param pre block that comes first
+	 * @param next block that comes after pre
+	 */
+	private static void link(FlowchartBlock pre, FlowchartBlock next) {
+		if(pre.getNext() != null)
+			pre.getNext().setPre(null);
+		if(next.getPre() != null)
+			next.getPre().setNext(null);
+		pre.setNext(next);
+		next.setPre(pre);
+	}
+	
+	/**
+	 * Add a listener to be notified of edits
+	 * @param l listener being added
+	 */
+	public void addEditorListener(EditorListener l) {
+		listeners.add(l);
+	}
+	
+	/**
+	 * Remove a listener so it is no longer notified of edits
+	 * @param l listener being removed
+	 */
+	public void removeEditorListener(EditorListener l) {
+		listeners.remove(l);
+	}
+	
+	// Notify all listeners of an event on a block
+	private void fireMessageEdited(FlowchartBlock block) {
+		for (int i = 0; i < listeners.size(); i++)
+			listeners.get(i).messageEdited(block);
+	}
+	
+	private void fireEditingDone(FlowchartBlock block) {
+		for (int i = 0; i < listeners.size(); i++)
+			listeners.get(i).editingDone(block);
+	}
+	
+	private void fireBlockRelinked(FlowchartBlock block) {
+		for (int i = 0; i < listeners.size(); i++)
+			listeners.get(i).blockRelinked(block);
+	}
+	
+	/**
+	 * Setter for log
+	 * @param log log to record edits in, or null
+	 */
+	public void setCommandLog(CommandLog log) {
+		this.log = log;
+	}
+	
 	public void setEditedBlocks(ArrayList<FlowchartBlock> blocks) {
 		editedBlocks.addAll(blocks);
 	}
@@ -0,0 +1,244 @@
+/**
+ * BlockIndex is a uniform grid over the canvas used to quickly find the
+ * blocks under a point or inside an area without testing every block. A
+ * block is indexed by its bounds together with the line connecting it to
+ * its previous block, or the route of that line if it was routed
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.*;
+import java.util.*;
+
+public class BlockIndex {
+	// Size of a grid cell, one block by default
+	private final double cellWidth;
+	private final double cellHeight;
+
+	// Blocks overlapping each cell, keyed by the packed cell coordinates
+	private HashMap<Long, ArrayList<FlowchartBlock>> cells =
+		new HashMap<Long, ArrayList<FlowchartBlock>>();
+
+	// Range of cells {minX, minY, maxX, maxY} each indexed block overlaps
+	private IdentityHashMap<FlowchartBlock, int[]> ranges =
+		new IdentityHashMap<FlowchartBlock, int[]>();
+
+	// Router whose routes are indexed with their blocks, may be null
+	private EdgeRouter router;
+
+	/**
+	 * Constructor for BlockIndex using cells the size of a block
+	 */
+	public BlockIndex() {
+		this(FlowchartBlock.getWidth(), FlowchartBlock.getHeight());
+	}
+
+	/**
+	 * Constructor for BlockIndex with a given cell size
+	 * @param cellWidth width of a grid cell
+	 * @param cellHeight height of a grid cell
+	 */
+	public BlockIndex(double cellWidth, double cellHeight) {
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+	}
+
+	/**
+	 * Setter for router
+	 * @param router router whose routes to index together with the blocks
+	 * they end at, or null to index straight lines
+	 */
+	public void setRouter(EdgeRouter router) {
+		this.router = router;
+	}
+
+	/**
+	 * Add a block to the index
+	 * @param block block being added
+	 */
+	public void add(FlowchartBlock block) {
+		// Ignore blocks that are already indexed
+		if(ranges.containsKey(block))
+			return;
+
+		int[] range = cellRange(block);
+		ranges.put(block, range);
+		insert(block, range);
+	}
+
+	/**
+	 * Remove a block from the index
+	 * @param block block being removed
+	 */
+	public void remove(FlowchartBlock block) {
+		int[] range = ranges.remove(block);
+		if(range != null)
+			erase(block, range);
+	}
+
+	/**
+	 * Move a block to the cells matching its current position, should be
+	 * called every time an indexed block or its previous block moves
+	 * @param block block that moved
+	 */
+	public void update(FlowchartBlock block) {
+		int[] oldRange = ranges.get(block);
+
+		// Blocks not in the index are left alone
+		if(oldRange == null)
+			return;
+
+		// Only touch the grid if the block moved into different cells
+		int[] newRange = cellRange(block);
+		if(!Arrays.equals(oldRange, newRange)) {
+			erase(block, oldRange);
+			insert(block, newRange);
+			ranges.put(block, newRange);
+		}
+	}
+
+	/**
+	 * Get all blocks containing a point
+	 * @param p point to check
+	 * @param result list the blocks containing p are added to
+	 */
+	public void blocksAt(Point p, java.util.List<FlowchartBlock> result) {
+		// Only the blocks in the cell of the point can contain it
+		ArrayList<FlowchartBlock> cell = cells.get(key(
+			cellX(p.getX()), cellY(p.getY())));
+		if(cell == null)
+			return;
+
+		for (int i = 0; i < cell.size(); i++) {
+			if(cell.get(i).containsPoint(p))
+				result.add(cell.get(i));
+		}
+	}
+
+	/**
+	 * Get all blocks or connecting lines intersecting a rectangle
+	 * @param r rectangle to check
+	 * @param result list the blocks intersecting r are added to, each once
+	 */
+	public void blocksIn(Rectangle r, java.util.List<FlowchartBlock> result) {
+		int minX = cellX(r.getMinX());
+		int minY = cellY(r.getMinY());
+		int maxX = cellX(r.getMaxX());
+		int maxY = cellY(r.getMaxY());
+
+		for (int cx = minX; cx <= maxX; cx++) {
+			for (int cy = minY; cy <= maxY; cy++) {
+				ArrayList<FlowchartBlock> cell = cells.get(key(cx, cy));
+				if(cell == null)
+					continue;
+
+				for (int i = 0; i < cell.size(); i++) {
+					FlowchartBlock block = cell.get(i);
+					int[] range = ranges.get(block);
+
+					// A block spanning several cells is only reported from
+					// the first of them inside the rectangle
+					if(cx == Math.max(range[0], minX) && 
+					   cy == Math.max(range[1], minY) &&
+					   bounds(block).intersects(r))
+						result.add(block);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculate the area a block covers on the canvas, including the line
+	 * to its previous block
+	 * @param block block to get the bounds of
+	 * @return the bounds of the block and its line to pre
+	 */
+	public static Rectangle getBounds(FlowchartBlock block) {
+		Rectangle bounds = new Rectangle((int) block.getX(), 
+			(int) block.getY(), (int) FlowchartBlock.getWidth(), 
+			(int) FlowchartBlock.getHeight());
+		if(block.getPre() != null)
+			bounds.add(block.getPre().getBottom());
+		return bounds;
+	}
+
+	/**
+	 * Calculate the area a block is indexed by: its bounds, the line to its
+	 * previous block and the route of that line
+	 * @param block block to get the bounds of
+	 * @return the bounds of the block and its line or route to pre
+	 */
+	public Rectangle bounds(FlowchartBlock block) {
+		Rectangle bounds = getBounds(block);
+		Rectangle route = router != null ? router.getBounds(block) : null;
+		if(route != null)
+			bounds.add(route);
+		return bounds;
+	}
+
+	/**
+	 * Getter for the number of indexed blocks
+	 * @return the number of blocks in the index
+	 */
+	public int size() {
+		return ranges.size();
+	}
+
+	/**
+	 * Calculate the range of cells a block's bounds overlap
+	 * @param block block to get the range of
+	 * @return the cell range {minX, minY, maxX, maxY}
+	 */
+	private int[] cellRange(FlowchartBlock block) {
+		Rectangle bounds = bounds(block);
+		return new int[] {cellX(bounds.getMinX()), cellY(bounds.getMinY()),
+			cellX(bounds.getMaxX()), cellY(bounds.getMaxY())};
+	}
+
+	// Add or remove a block from every cell in a range
+	private void insert(FlowchartBlock block, int[] range) {
+		for (int cx = range[0]; cx <= range[2]; cx++) {
+			for (int cy = range[1]; cy <= range[3]; cy++) {
+				Long k = key(cx, cy);
+				ArrayList<FlowchartBlock> cell = cells.get(k);
+				if(cell == null)
+					cells.put(k, cell = new ArrayList<FlowchartBlock>(2));
+				cell.add(block);
+			}
+		}
+	}
+
+	private void erase(FlowchartBlock block, int[] range) {
+		for (int cx = range[0]; cx <= range[2]; cx++) {
+			for (int cy = range[1]; cy <= range[3]; cy++) {
+				Long k = key(cx, cy);
+				ArrayList<FlowchartBlock> cell = cells.get(k);
+				if(cell == null)
+					continue;
+
+				// Remove by identity and drop the cell once it is empty
+				for (int i = 0; i < cell.size(); i++) {
+					if(cell.get(i) == block) {
+						cell.remove(i);
+						break;
+					}
+				}
+				if(cell.isEmpty())
+					cells.remove(k);
+			}
+		}
+	}
+
+	// Convert coordinates to cell coordinates and pack them into a key
+	private int cellX(double x) {
+		return (int) Math.floor(x / cellWidth);
+	}
+
+	private int cellY(double y) {
+		return (int) Math.floor(y / cellHeight);
+	}
+
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+}
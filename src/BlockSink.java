@@ -0,0 +1,25 @@
+/**
+ * BlockSink receives the blocks of a flowchart as they are created, such as
+ * a canvas drawing them or a converter writing them out
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+public interface BlockSink {
+	/**
+	 * Add a newly created block
+	 * @param block block being added
+	 */
+	public void addBlock(FlowchartBlock block);
+
+	/**
+	 * Remove a block that is no longer part of the flowchart and free its
+	 * slot in the store. Sinks still drawing the block on another thread
+	 * free the slot once they no longer use it, by default it is freed
+	 * right away.
+	 * @param block block being removed
+	 */
+	public default void removeBlock(FlowchartBlock block) {
+		block.getStore().remove(block.getId());
+	}
+}
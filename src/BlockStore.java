@@ -0,0 +1,508 @@
+/**
+ * BlockStore holds the data of a whole chart of blocks in parallel arrays,
+ * one array per field indexed by block id. FlowchartBlock objects are thin
+ * views over a block id, created only when a block is asked for, so a
+ * chart costs a few dozen bytes per block instead of a handful of objects.
+ * A store opened from a ChartFile reads its blocks from the file a page at
+ * a time, the first time a block of the page is used.
+ *
+ * A store can be read and written from several threads, such as a parser
+ * adding blocks while the canvas paints them. Blocks are spread over a few
+ * stripes, each with its own lock. Writers lock the stripe of the block
+ * they change, so writes to different blocks rarely wait on each other.
+ * Readers don't lock at all: they read optimistically and only read again
+ * under the lock if a write to the stripe happened meanwhile. Blocks are
+ * added one at a time, and growing the columns or reading a page from the
+ * file locks every stripe.
+ *
+ * StoreListeners are told whenever the content or links of a block change,
+ * on the thread that changed them.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+public class BlockStore {
+	private static final int INITIAL_CAPACITY = 16; // blocks before growing
+	private static final int NONE = -1; // id of a missing linked block
+	private static final byte REMOVED = -1; // type of a removed block
+	private static final int PAGE_BITS = 12; // 4096 blocks read at a time
+	private static final int STRIPES = 16; // locks, a power of two
+
+	// Number of blocks stored, written after the block is filled in so
+	// readers never see a block being added
+	private volatile int size = 0;
+
+	// Lock of each stripe, block id i belonging to stripe i % STRIPES
+	private final StampedLock[] stripes = new StampedLock[STRIPES];
+
+	// Columns of block data
+	private byte[] types = new byte[INITIAL_CAPACITY]; // BlockType ordinals
+	private int[] xs = new int[INITIAL_CAPACITY]; // origin x coordinates
+	private int[] ys = new int[INITIAL_CAPACITY]; // origin y coordinates
+	private String[] msgs = new String[INITIAL_CAPACITY];
+	private int[] pres = new int[INITIAL_CAPACITY];
+	private int[] nexts = new int[INITIAL_CAPACITY];
+
+	// Block control jumps to instead of next, or that a decision jumps to
+	// when it doesn't go on to next, see FlowGraph
+	private int[] branches = new int[INITIAL_CAPACITY];
+
+	// Block objects already created for each id
+	private FlowchartBlock[] views = new FlowchartBlock[INITIAL_CAPACITY];
+	
+	// File the blocks are read from, null once every page has been read
+	private volatile ChartFile source;
+	private boolean[] loaded; // pages already read from the file
+	private int unloaded; // number of pages not read yet
+
+	// Listeners notified of changes, replaced by a new array when one is
+	// added or removed so changes never allocate
+	private volatile StoreListener[] listeners = new StoreListener[0];
+
+	/**
+	 * Constructor for an empty BlockStore
+	 */
+	public BlockStore() {
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new StampedLock();
+	}
+
+	/**
+	 * Constructor for a BlockStore reading its blocks from a file as they 
+	 * are used
+	 * @param source file holding the blocks
+	 * @param size number of blocks in the file
+	 */
+	BlockStore(ChartFile source, int size) {
+		this();
+		int capacity = Math.max(size, INITIAL_CAPACITY);
+		types = new byte[capacity];
+		xs = new int[capacity];
+		ys = new int[capacity];
+		msgs = new String[capacity];
+		pres = new int[capacity];
+		nexts = new int[capacity];
+		branches = new int[capacity];
+		views = new FlowchartBlock[capacity];
+		this.size = size;
+		
+		// Nothing is read until a block is used
+		unloaded = (size + (1 << PAGE_BITS) - 1) >> PAGE_BITS;
+		if(unloaded > 0) {
+			this.source = source;
+			loaded = new boolean[unloaded];
+		}
+	}
+
+	/**
+	 * Add a block without any links
+	 * @param type type of block
+	 * @param x x coordinate of block
+	 * @param y y coordinate of block
+	 * @param msg message of block
+	 * @return the id of the new block
+	 */
+	public synchronized int add(BlockType type, double x, double y, 
+			String msg) {
+		// Grow all columns together when full
+		int id = size;
+		if(id == xs.length)
+			grow();
+
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		types[id] = (byte) type.ordinal();
+		xs[id] = (int) x;
+		ys[id] = (int) y;
+		msgs[id] = msg;
+		pres[id] = NONE;
+		nexts[id] = NONE;
+		branches[id] = NONE;
+		lock.unlockWrite(stamp);
+		
+		// Only now can other threads see the block
+		size = id + 1;
+		return id;
+	}
+
+	/**
+	 * Get the block object for an id, creating it if needed
+	 * @param id id of the block, or -1
+	 * @return the block, or null for -1 or a removed block
+	 */
+	public FlowchartBlock getBlock(int id) {
+		if(id == NONE)
+			return null;
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		FlowchartBlock view = views[id];
+		if(view != null && lock.validate(stamp))
+			return view;
+
+		// Create the block object under the lock so there is only one
+		stamp = lock.writeLock();
+		try {
+			if(types[id] == REMOVED)
+				return null;
+			if(views[id] == null)
+				views[id] = BlockType.of(types[id]).view(this, id);
+			return views[id];
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Set the block object of an id, used by blocks creating themselves
+	 * @param id id of the block
+	 * @param block object viewing the block
+	 */
+	void setBlock(int id, FlowchartBlock block) {
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		views[id] = block;
+		lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Remove a block. Its id isn't reused, and it is left out when the
+	 * store is saved. Blocks linked or branching to it have to be relinked
+	 * separately.
+	 * @param id id of the block
+	 */
+	public void remove(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		types[id] = REMOVED;
+		msgs[id] = null;
+		pres[id] = NONE;
+		nexts[id] = NONE;
+		branches[id] = NONE;
+		views[id] = null;
+		lock.unlockWrite(stamp);
+		fireChanged(id);
+	}
+
+	/**
+	 * Check if a block was removed
+	 * @param id id of the block
+	 * @return true if the block was removed
+	 */
+	public boolean isRemoved(int id) {
+		return getType(id) == null;
+	}
+
+	/**
+	 * Move a block
+	 * @param id id of the block
+	 * @param deltaX distance to move in x-direction
+	 * @param deltaY distance to move in y-direction
+	 */
+	public void translate(int id, double deltaX, double deltaY) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		xs[id] += (int) deltaX;
+		ys[id] += (int) deltaY;
+		lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Getter for the number of blocks
+	 * @return the number of blocks stored
+	 */
+	public int size() {
+		return size;
+	}
+
+	// Getters and setters for the columns of a block. Getters read without
+	// locking and read again under the lock if a write got in the way.
+	public BlockType getType(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		byte type = types[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			type = types[id];
+			lock.unlockRead(stamp);
+		}
+		return type == REMOVED ? null : BlockType.of(type);
+	}
+
+	public void setType(int id, BlockType type) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		types[id] = (byte) type.ordinal();
+		lock.unlockWrite(stamp);
+		fireChanged(id);
+	}
+
+	public int getX(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		int x = xs[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			x = xs[id];
+			lock.unlockRead(stamp);
+		}
+		return x;
+	}
+
+	public int getY(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		int y = ys[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			y = ys[id];
+			lock.unlockRead(stamp);
+		}
+		return y;
+	}
+
+	/**
+	 * Get the location of a block, with x and y read together so a block
+	 * being moved is never seen halfway
+	 * @param id id of the block
+	 * @return the origin of the block
+	 */
+	public java.awt.Point getLocation(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		int x = xs[id];
+		int y = ys[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			x = xs[id];
+			y = ys[id];
+			lock.unlockRead(stamp);
+		}
+		return new java.awt.Point(x, y);
+	}
+
+	public void setLocation(int id, double x, double y) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		xs[id] = (int) x;
+		ys[id] = (int) y;
+		lock.unlockWrite(stamp);
+	}
+
+	public String getMsg(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		String msg = msgs[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			msg = msgs[id];
+			lock.unlockRead(stamp);
+		}
+		return msg;
+	}
+
+	public void setMsg(int id, String msg) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		msgs[id] = msg;
+		lock.unlockWrite(stamp);
+		fireChanged(id);
+	}
+
+	public int getPre(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		int pre = pres[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			pre = pres[id];
+			lock.unlockRead(stamp);
+		}
+		return pre;
+	}
+
+	public void setPre(int id, int pre) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		pres[id] = pre;
+		lock.unlockWrite(stamp);
+		fireChanged(id);
+	}
+
+	public int getNext(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		int next = nexts[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			next = nexts[id];
+			lock.unlockRead(stamp);
+		}
+		return next;
+	}
+
+	public void setNext(int id, int next) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		nexts[id] = next;
+		lock.unlockWrite(stamp);
+		fireChanged(id);
+	}
+
+	public int getBranch(int id) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.tryOptimisticRead();
+		int branch = branches[id];
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			branch = branches[id];
+			lock.unlockRead(stamp);
+		}
+		return branch;
+	}
+
+	public void setBranch(int id, int branch) {
+		load(id);
+		StampedLock lock = stripe(id);
+		long stamp = lock.writeLock();
+		branches[id] = branch;
+		lock.unlockWrite(stamp);
+		fireChanged(id);
+	}
+
+	/**
+	 * Add a listener to notify whenever a block's content or links change
+	 * @param l listener to add
+	 */
+	public synchronized void addListener(StoreListener l) {
+		StoreListener[] now = Arrays.copyOf(listeners, listeners.length + 1);
+		now[listeners.length] = l;
+		listeners = now;
+	}
+
+	/**
+	 * Remove a listener added by addListener
+	 * @param l listener to remove
+	 */
+	public synchronized void removeListener(StoreListener l) {
+		ArrayList<StoreListener> now =
+			new ArrayList<StoreListener>(Arrays.asList(listeners));
+		now.remove(l);
+		listeners = now.toArray(new StoreListener[now.size()]);
+	}
+
+	/**
+	 * Notify the listeners that a block changed
+	 * @param id id of the block
+	 */
+	private void fireChanged(int id) {
+		StoreListener[] ls = listeners;
+		for (int i = 0; i < ls.length; i++)
+			ls[i].blockChanged(id);
+	}
+
+	/**
+	 * Get the lock of a block's stripe
+	 * @param id id of the block
+	 * @return the lock guarding the block's columns
+	 */
+	private StampedLock stripe(int id) {
+		return stripes[id & (STRIPES - 1)];
+	}
+
+	/**
+	 * Lock every stripe, for changes to the columns themselves
+	 * @return the stamps to unlock the stripes with
+	 */
+	private long[] lockAll() {
+		long[] stamps = new long[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stamps[i] = stripes[i].writeLock();
+		return stamps;
+	}
+
+	/**
+	 * Unlock every stripe locked by lockAll
+	 * @param stamps stamps returned by lockAll
+	 */
+	private void unlockAll(long[] stamps) {
+		for (int i = STRIPES - 1; i >= 0; i--)
+			stripes[i].unlockWrite(stamps[i]);
+	}
+
+	/**
+	 * Make sure the page of a block has been read from the source file
+	 * @param id id of the block
+	 */
+	private void load(int id) {
+		ChartFile file = source;
+		if(file == null)
+			return;
+		
+		int page = id >> PAGE_BITS;
+		if(page >= loaded.length || loaded[page])
+			return;
+		
+		// Check again once locked, another thread may have read the page
+		long[] stamps = lockAll();
+		try {
+			if(loaded[page])
+				return;
+			
+			// Copy the page's blocks into the columns
+			int last = Math.min((page + 1) << PAGE_BITS, 
+				file.getBlockCount());
+			for (int i = page << PAGE_BITS; i < last; i++) {
+				types[i] = (byte) BlockType.of(file.getType(i)).ordinal();
+				xs[i] = file.getX(i);
+				ys[i] = file.getY(i);
+				msgs[i] = file.getMsg(i);
+				pres[i] = file.getPre(i);
+				nexts[i] = file.getNext(i);
+				branches[i] = file.getBranch(i);
+			}
+			loaded[page] = true;
+			
+			// Let go of the file once everything has been read
+			if(--unloaded == 0)
+				source = null;
+		} finally {
+			unlockAll(stamps);
+		}
+	}
+
+	/**
+	 * Double the capacity of all columns, with every stripe locked
+	 */
+	private void grow() {
+		long[] stamps = lockAll();
+		int capacity = xs.length * 2;
+		types = Arrays.copyOf(types, capacity);
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		msgs = Arrays.copyOf(msgs, capacity);
+		pres = Arrays.copyOf(pres, capacity);
+		nexts = Arrays.copyOf(nexts, capacity);
+		branches = Arrays.copyOf(branches, capacity);
+		views = Arrays.copyOf(views, capacity);
+		unlockAll(stamps);
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * BlockType is the kind of a flowchart block. Each type has one template
+ * shape at the origin shared by all of its blocks, which are drawn and
+ * hit-tested by translating to their own origin, so blocks don't build a
+ * shape of their own. A store keeps a block's type as the byte ordinal of
+ * its BlockType.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.*;
+import java.awt.geom.*;
+
+public enum BlockType {
+	DATA("Data") {
+		@Override
+		FlowchartBlock view(BlockStore store, int id) {
+			return new DataBlock(store, id);
+		}
+	},
+	TERMINATOR("Terminator") {
+		@Override
+		FlowchartBlock view(BlockStore store, int id) {
+			return new TerminatorBlock(store, id);
+		}
+	},
+	DECISION("Decision") {
+		@Override
+		FlowchartBlock view(BlockStore store, int id) {
+			return new DecisionBlock(store, id);
+		}
+	};
+
+	// All types by ordinal, since values() copies the array every call
+	private static final BlockType[] TYPES = values();
+
+	private final String name; // name of the type shown and saved
+
+	/**
+	 * Constructor for BlockType
+	 * @param name name of the type shown and saved
+	 */
+	BlockType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Create the block object viewing a block of this type in a store
+	 * @param store store holding the block's data
+	 * @param id id of the block in the store
+	 * @return a new block object for the id
+	 */
+	abstract FlowchartBlock view(BlockStore store, int id);
+
+	/**
+	 * Getter for name
+	 * @return the name of the type, such as "Data"
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter for template
+	 * @return the shape of the type's blocks with their origin at (0, 0),
+	 * shared by all of them and read-only
+	 */
+	public Shape getTemplate() {
+		return Templates.TEMPLATES[ordinal()];
+	}
+
+	/**
+	 * Get a type by its ordinal, as kept in a store
+	 * @param ordinal ordinal of the type
+	 * @return the type
+	 */
+	public static BlockType of(int ordinal) {
+		return TYPES[ordinal];
+	}
+
+	/**
+	 * Get a type by its name, as saved in chart files
+	 * @param name name of the type
+	 * @return the type with the name
+	 * @throws IllegalArgumentException if no type has the name
+	 */
+	public static BlockType of(String name) {
+		for (int i = 0; i < TYPES.length; i++) {
+			if(TYPES[i].name.equals(name))
+				return TYPES[i];
+		}
+		throw new IllegalArgumentException("Unknown block type: " + name);
+	}
+
+	/**
+	 * This class holds the template of each type, created the first time a
+	 * template is asked for. Only this class treats the templates as
+	 * Shapes, so charts converted without being drawn never load an AWT
+	 * class, not even to verify the block classes.
+	 */
+	private static final class Templates {
+		static final Shape[] TEMPLATES = new Shape[TYPES.length];
+
+		static {
+			TEMPLATES[DATA.ordinal()] = new Template(
+				DataBlock.createTemplate());
+			TEMPLATES[TERMINATOR.ordinal()] = new Template(
+				TerminatorBlock.createTemplate());
+			TEMPLATES[DECISION.ordinal()] = new Template(
+				DecisionBlock.createTemplate());
+		}
+	}
+
+	/**
+	 * Read-only copy of a template. Shapes such as Polygon can be changed
+	 * by anyone holding them, and this one is shared by every block.
+	 */
+	private static final class Template implements Shape {
+		private final Path2D path; // copy of the template, never changed
+
+		/**
+		 * Constructor for Template
+		 * @param shape shape to copy
+		 */
+		Template(Shape shape) {
+			path = new Path2D.Double(shape);
+		}
+
+		@Override
+		public Rectangle getBounds() {
+			return path.getBounds();
+		}
+
+		@Override
+		public Rectangle2D getBounds2D() {
+			return path.getBounds2D();
+		}
+
+		@Override
+		public boolean contains(double x, double y) {
+			return path.contains(x, y);
+		}
+
+		@Override
+		public boolean contains(Point2D p) {
+			return path.contains(p);
+		}
+
+		@Override
+		public boolean intersects(double x, double y, double w, double h) {
+			return path.intersects(x, y, w, h);
+		}
+
+		@Override
+		public boolean intersects(Rectangle2D r) {
+			return path.intersects(r);
+		}
+
+		@Override
+		public boolean contains(double x, double y, double w, double h) {
+			return path.contains(x, y, w, h);
+		}
+
+		@Override
+		public boolean contains(Rectangle2D r) {
+			return path.contains(r);
+		}
+
+		@Override
+		public PathIterator getPathIterator(AffineTransform at) {
+			return path.getPathIterator(at);
+		}
+
+		@Override
+		public PathIterator getPathIterator(AffineTransform at,
+				double flatness) {
+			return path.getPathIterator(at, flatness);
+		}
+	}
+}
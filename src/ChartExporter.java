@@ -0,0 +1,579 @@
+/**
+ * ChartExporter draws a chart into a PNG or SVG file without a canvas or a
+ * screen, for charts far too large to draw into a single image. A PNG is
+ * drawn in bands of rows, each band split into tiles drawn in parallel, and
+ * a band's rows are compressed and written out while the next band is being
+ * drawn, so no more than two bands of pixels are ever held however large
+ * the chart is. A band is a tile high, or fewer rows for charts so wide
+ * that a tile high band would hold too many pixels. An SVG is written out
+ * one block at a time, with each type's shape written once and reused.
+ *
+ * The blocks are indexed and their lines routed once before drawing, after
+ * which the tiles only read them, so the store must not change while a
+ * chart is exported.
+ *
+ * Usage: java ChartExporter in.java|in.fcc out.png|out.svg [scale] [threads]
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class ChartExporter {
+	// Extensions of the image files charts are exported to
+	public static final String PNG = ".png";
+	public static final String SVG = ".svg";
+
+	private static final String JAVA = ".java"; // extension of code files
+
+	private static final int TILE_SIZE = 512; // pixels along a tile's side
+	private static final int BAND_PIXELS = 1 << 23; // most pixels in a band
+	private static final int MARGIN = 20; // space around the blocks
+	private static final int CHUNK_SIZE = 1 << 16; // bytes of an IDAT chunk
+
+	// Colors and font the blocks are drawn with, as on a new canvas
+	private static final Color BACKGROUND = Color.WHITE;
+	private static final Color FOREGROUND = Color.BLACK;
+	private static final Font FONT = new Font(Font.DIALOG, Font.PLAIN, 12);
+
+	// Bytes every PNG file starts with
+	private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r',
+		'\n', 26, '\n'};
+
+	private final BlockStore store; // store of the blocks being exported
+	private final double scale; // pixels per unit of the chart
+
+	// Blocks indexed together with their routes, and the route of the line
+	// to each block by block id
+	private final BlockIndex index = new BlockIndex();
+	private final Path2D[] routes;
+
+	// Area of the chart exported, in chart coordinates, and the size of the
+	// image it is drawn into
+	private final Rectangle bounds;
+	private final int width;
+	private final int height;
+
+	// Image each thread draws its tiles into, and the labels it lays out,
+	// which aren't kept since each block is only drawn a few times
+	private final ThreadLocal<BufferedImage> tiles = ThreadLocal.withInitial(
+		() -> new BufferedImage(TILE_SIZE, TILE_SIZE,
+			BufferedImage.TYPE_INT_RGB));
+	private final ThreadLocal<LabelCache> labels =
+		ThreadLocal.withInitial(LabelCache::new);
+
+	/**
+	 * Constructor for ChartExporter, indexing the blocks and routing their
+	 * lines
+	 * @param store store of the blocks to export
+	 * @param scale pixels per unit of the chart, 1 to export it the size
+	 * it is shown at without zoom
+	 * @throws IllegalArgumentException if the scale isn't positive or the
+	 * image would be too large for a PNG
+	 */
+	public ChartExporter(BlockStore store, double scale) {
+		if(!(scale > 0))
+			throw new IllegalArgumentException("Scale must be positive");
+		this.store = store;
+		this.scale = scale;
+
+		// Route the lines around all blocks, which indexes each block again
+		// together with its route
+		EdgeRouter router = new EdgeRouter(index);
+		index.setRouter(router);
+		int n = store.size();
+		for (int id = 0; id < n; id++) {
+			if(!store.isRemoved(id))
+				index.add(store.getBlock(id));
+		}
+		routes = new Path2D[n];
+		Rectangle area = null;
+		for (int id = 0; id < n; id++) {
+			if(store.isRemoved(id))
+				continue;
+			FlowchartBlock block = store.getBlock(id);
+			routes[id] = router.getRoute(block);
+			Rectangle covered = index.bounds(block);
+			if(area == null)
+				area = covered;
+			else
+				area.add(covered);
+		}
+		bounds = area != null ? area : new Rectangle();
+		bounds.grow(MARGIN, MARGIN);
+
+		// Each row of a PNG is one filter byte and three bytes a pixel
+		double w = Math.ceil(bounds.width * scale);
+		double h = Math.ceil(bounds.height * scale);
+		if(w > (Integer.MAX_VALUE - 1) / 3 || h > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Chart is too large to " +
+				"export at scale " + scale);
+		width = (int) w;
+		height = (int) h;
+	}
+
+	/**
+	 * Main method exporting a chart
+	 * @param args code or chart file, image file, and optionally the scale
+	 * and the number of threads drawing tiles
+	 */
+	public static void main(String[] args) {
+		// Never start the AWT toolkit
+		System.setProperty("java.awt.headless", "true");
+
+		if(args.length < 2) {
+			System.err.println("Usage: java ChartExporter in" + JAVA + "|in" +
+				ChartFile.EXTENSION + " out" + PNG + "|out" + SVG +
+				" [scale] [threads]");
+			System.exit(2);
+		}
+
+		try {
+			double scale = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+			int threads = args.length > 3 ? Integer.parseInt(args[3]) :
+				Runtime.getRuntime().availableProcessors();
+			long start = System.nanoTime();
+			ChartExporter exporter = new ChartExporter(
+				load(Paths.get(args[0])), scale);
+			exporter.write(Paths.get(args[1]), threads);
+			System.out.println("Exported " + exporter.getWidth() + "x" +
+				exporter.getHeight() + " pixels in " +
+				(System.nanoTime() - start) / 1000000 + " ms");
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Load the blocks of a chart file, or of a code file converted and laid
+	 * out the way BatchConverter does
+	 * @param in code or chart file
+	 * @return the store of the blocks
+	 * @throws IOException if the file can't be read
+	 */
+	private static BlockStore load(Path in) throws IOException {
+		if(!in.toString().endsWith(JAVA))
+			return ChartFile.load(in);
+		FlowchartBlock last;
+		try (Reader r = Files.newBufferedReader(in, StandardCharsets.UTF_8)) {
+			last = new CodeParser(r, block -> {}, 0, 0, null).parse();
+		}
+		BlockStore store = last != null ? last.getStore() : new BlockStore();
+		new LayoutEngine().layout(store);
+		return store;
+	}
+
+	/**
+	 * Export the chart to a file, as a PNG or SVG depending on its
+	 * extension
+	 * @param out file to write
+	 * @param threads number of threads drawing the tiles of a PNG
+	 * @throws IOException if the file can't be written
+	 * @throws IllegalArgumentException if the extension isn't .png or .svg
+	 */
+	public void write(Path out, int threads) throws IOException {
+		String name = out.getFileName().toString().toLowerCase();
+		if(name.endsWith(PNG)) {
+			try (OutputStream os = new BufferedOutputStream(
+					Files.newOutputStream(out), CHUNK_SIZE)) {
+				writePng(os, threads);
+			}
+		} else if(name.endsWith(SVG)) {
+			try (Writer w = Files.newBufferedWriter(out,
+					StandardCharsets.UTF_8)) {
+				writeSvg(w);
+			}
+		} else {
+			throw new IllegalArgumentException("Can't export to " + out +
+				", use " + PNG + " or " + SVG);
+		}
+	}
+
+	/**
+	 * Write the chart as a PNG, band by band. The tiles of the next band are
+	 * drawn while the rows of the last one are compressed.
+	 * @param out stream to write the PNG to, left open
+	 * @param threads number of threads drawing tiles
+	 * @throws IOException if the stream can't be written
+	 */
+	public void writePng(OutputStream out, int threads) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.write(SIGNATURE);
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream fields = new DataOutputStream(header);
+		fields.writeInt(width);
+		fields.writeInt(height);
+		fields.write(new byte[] {8, 2, 0, 0, 0}); // 8 bit RGB, not laced
+		writeChunk(data, "IHDR", header.toByteArray(), header.size());
+
+		// Bands are filled by the tiles and then compressed, two in turn
+		int rows = Math.max(1, Math.min(TILE_SIZE, BAND_PIXELS / width));
+		int stride = 1 + 3 * width;
+		byte[][] bands = {new byte[rows * stride],
+			new byte[Math.min(rows, Math.max(0, height - rows)) * stride]};
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (DeflaterOutputStream idat = new DeflaterOutputStream(
+				new ChunkStream(data), deflater, CHUNK_SIZE)) {
+			ForkJoinTask<Void> drawing = pool.submit(new BandTask(bands[0], 0,
+				Math.min(rows, height), 0, getColumns()));
+			for (int y = 0, b = 0; y < height; y += rows, b ^= 1) {
+				drawing.join();
+				int next = y + rows;
+				if(next < height)
+					drawing = pool.submit(new BandTask(bands[b ^ 1], next,
+						Math.min(rows, height - next), 0, getColumns()));
+				idat.write(bands[b], 0, Math.min(rows, height - y) * stride);
+			}
+		} finally {
+			deflater.end();
+			pool.shutdownNow();
+		}
+		writeChunk(data, "IEND", new byte[0], 0);
+		data.flush();
+	}
+
+	/**
+	 * Draw a tile of the chart into its part of a band
+	 * @param band rows of the band, each one filter byte then RGB pixels
+	 * @param x0 x coordinate of the tile in the image
+	 * @param y0 y coordinate of the band in the image
+	 * @param rows number of rows in the band
+	 */
+	private void drawTile(byte[] band, int x0, int y0, int rows) {
+		int w = Math.min(TILE_SIZE, width - x0);
+		BufferedImage tile = tiles.get();
+		Graphics2D g2 = tile.createGraphics();
+		g2.setColor(BACKGROUND);
+		g2.fillRect(0, 0, w, rows);
+		g2.clipRect(0, 0, w, rows);
+		g2.setColor(FOREGROUND);
+		g2.setFont(FONT);
+		g2.translate(-x0, -y0);
+		g2.scale(scale, scale);
+		g2.translate(-bounds.x, -bounds.y);
+		drawBlocks(g2, g2.getClipBounds(), labels.get());
+		g2.dispose();
+
+		// Copy the pixels into the tile's columns of the band's rows
+		int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer())
+			.getData();
+		int stride = 1 + 3 * width;
+		for (int r = 0; r < rows; r++) {
+			int o = r * stride + 1 + 3 * x0;
+			int p = r * TILE_SIZE;
+			for (int i = 0; i < w; i++) {
+				int rgb = pixels[p + i];
+				band[o++] = (byte) (rgb >> 16);
+				band[o++] = (byte) (rgb >> 8);
+				band[o++] = (byte) rgb;
+			}
+		}
+	}
+
+	/**
+	 * Draw the blocks and lines inside an area, the same way the canvas
+	 * draws them
+	 * @param g2 Graphics2D object to draw on, in chart coordinates
+	 * @param clip area to draw
+	 * @param labels labels of the drawing thread
+	 */
+	private void drawBlocks(Graphics2D g2, Rectangle clip,
+			LabelCache labels) {
+		// Lines are a pixel wide, so find the blocks a pixel outside too
+		ArrayList<FlowchartBlock> found = new ArrayList<FlowchartBlock>();
+		clip.grow(1, 1);
+		index.blocksIn(clip, found);
+		for (int i = 0; i < found.size(); i++) {
+			FlowchartBlock block = found.get(i);
+			Path2D route = routes[block.getId()];
+			if(route != null)
+				g2.draw(route);
+
+			// Only the line of a block may cross the area
+			Point origin = block.getOrigin();
+			if(!clip.intersects(origin.x, origin.y, FlowchartBlock.getWidth(),
+					FlowchartBlock.getHeight()))
+				continue;
+			g2.translate(origin.x, origin.y);
+			g2.draw(block.getTemplate());
+			g2.translate(-origin.x, -origin.y);
+			labels.drawOnce(g2, block);
+		}
+	}
+
+	/**
+	 * Write the chart as an SVG, one block at a time
+	 * @param out writer to write the SVG to, left open
+	 * @throws IOException if the writer can't be written
+	 */
+	public void writeSvg(Writer out) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" " +
+			"xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + width +
+			"\" height=\"" + height + "\" viewBox=\"" + bounds.x + " " +
+			bounds.y + " " + bounds.width + " " + bounds.height + "\">\n");
+		out.write("<rect x=\"" + bounds.x + "\" y=\"" + bounds.y +
+			"\" width=\"" + bounds.width + "\" height=\"" + bounds.height +
+			"\" fill=\"white\"/>\n");
+
+		// Each type's shape is written once, and used at each block
+		out.write("<defs>\n");
+		BlockType[] types = BlockType.values();
+		for (int i = 0; i < types.length; i++)
+			out.write("<path id=\"" + types[i].getName() + "\" d=\"" +
+				getPathData(types[i].getTemplate()) + "\"/>\n");
+		out.write("</defs>\n");
+
+		out.write("<g fill=\"none\" stroke=\"black\">\n");
+		int n = store.size();
+		for (int id = 0; id < n; id++) {
+			if(store.isRemoved(id))
+				continue;
+			if(routes[id] != null)
+				out.write("<path d=\"" + getPathData(routes[id]) + "\"/>\n");
+			out.write("<use xlink:href=\"#" + store.getType(id).getName() +
+				"\" x=\"" + store.getX(id) + "\" y=\"" + store.getY(id) +
+				"\"/>\n");
+		}
+		out.write("</g>\n");
+
+		// Labels are wrapped as they would be drawn, measured in the font
+		BufferedImage scratch = new BufferedImage(1, 1,
+			BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = scratch.createGraphics();
+		g2.setFont(FONT);
+		LabelCache text = new LabelCache();
+		out.write("<g font-family=\"" + FONT.getFamily() +
+			", sans-serif\" font-size=\"" + FONT.getSize() + "\">\n");
+		for (int id = 0; id < n; id++) {
+			if(store.isRemoved(id))
+				continue;
+			FlowchartBlock block = store.getBlock(id);
+			String[] lines = text.getText(g2, block.getMsg());
+			for (int i = 0; i < lines.length; i++) {
+				out.write("<text x=\"" + block.getxStr() + "\" y=\"" +
+					getNumber(block.getyStr() + i * text.getLineHeight()) +
+					"\">");
+				writeEscaped(out, lines[i]);
+				out.write("</text>\n");
+			}
+		}
+		g2.dispose();
+		out.write("</g>\n</svg>\n");
+	}
+
+	/**
+	 * Getter for width
+	 * @return the width of the exported image in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Getter for height
+	 * @return the height of the exported image in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Getter for the number of tiles across a band
+	 * @return the number of tile columns
+	 */
+	private int getColumns() {
+		return (width + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	/**
+	 * Write a PNG chunk
+	 * @param out stream to write to
+	 * @param type four letter type of the chunk
+	 * @param data data of the chunk
+	 * @param length number of bytes of data
+	 * @throws IOException if the stream can't be written
+	 */
+	private static void writeChunk(DataOutputStream out, String type,
+			byte[] data, int length) throws IOException {
+		byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(name);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Get the SVG path data of a shape
+	 * @param shape shape to describe
+	 * @return the path's commands and coordinates
+	 */
+	private static String getPathData(Shape shape) {
+		StringBuilder d = new StringBuilder();
+		double[] c = new double[6];
+		for (PathIterator it = shape.getPathIterator(null); !it.isDone();
+				it.next()) {
+			int points;
+			switch (it.currentSegment(c)) {
+				case PathIterator.SEG_MOVETO:
+					d.append('M');
+					points = 1;
+					break;
+				case PathIterator.SEG_LINETO:
+					d.append('L');
+					points = 1;
+					break;
+				case PathIterator.SEG_QUADTO:
+					d.append('Q');
+					points = 2;
+					break;
+				case PathIterator.SEG_CUBICTO:
+					d.append('C');
+					points = 3;
+					break;
+				default:
+					d.append('Z');
+					points = 0;
+			}
+			for (int i = 0; i < 2 * points; i++) {
+				if(i > 0)
+					d.append(' ');
+				d.append(getNumber(c[i]));
+			}
+		}
+		return d.toString();
+	}
+
+	/**
+	 * Format a coordinate for SVG, leaving whole numbers without a fraction
+	 * @param v coordinate
+	 * @return the coordinate as text
+	 */
+	private static String getNumber(double v) {
+		return v == (long) v ? Long.toString((long) v) :
+			Float.toString((float) v);
+	}
+
+	/**
+	 * Write text escaped for XML. Control chars XML can't hold are written
+	 * as spaces.
+	 * @param out writer to write to
+	 * @param s text to write
+	 * @throws IOException if the writer can't be written
+	 */
+	private static void writeEscaped(Writer out, String s)
+			throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '&')
+				out.write("&amp;");
+			else if(c == '<')
+				out.write("&lt;");
+			else if(c == '>')
+				out.write("&gt;");
+			else if(c < ' ' || c >= '\uFFFE')
+				out.write(' ');
+			else
+				out.write(c);
+		}
+	}
+
+	/**
+	 * This class draws a range of a band's tiles, splitting it in half until
+	 * a single tile is left so idle threads can steal the other half
+	 */
+	@SuppressWarnings("serial")
+	private class BandTask extends RecursiveAction {
+		private final byte[] band; // rows of the band
+		private final int y0; // y coordinate of the band in the image
+		private final int rows; // number of rows in the band
+		private final int lo; // first tile column of the range
+		private final int hi; // end of the range, exclusive
+
+		BandTask(byte[] band, int y0, int rows, int lo, int hi) {
+			this.band = band;
+			this.y0 = y0;
+			this.rows = rows;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(hi - lo <= 1) {
+				if(hi > lo)
+					drawTile(band, lo * TILE_SIZE, y0, rows);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new BandTask(band, y0, rows, lo, mid),
+				new BandTask(band, y0, rows, mid, hi));
+		}
+	}
+
+	/**
+	 * ChunkStream splits the compressed rows of a PNG into IDAT chunks as
+	 * they are written, so the image never has to be held whole
+	 */
+	private static class ChunkStream extends OutputStream {
+		private final DataOutputStream out; // stream of the PNG
+		private final byte[] buffer = new byte[CHUNK_SIZE]; // next chunk
+		private int count = 0; // bytes in the next chunk
+
+		ChunkStream(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			buffer[count++] = (byte) b;
+			if(count == buffer.length)
+				writeData();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0) {
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+				if(count == buffer.length)
+					writeData();
+			}
+		}
+
+		/**
+		 * Write the last chunk, leaving the PNG's stream open for the end
+		 */
+		@Override
+		public void close() throws IOException {
+			writeData();
+		}
+
+		/**
+		 * Write the buffered bytes as a chunk
+		 * @throws IOException if the stream can't be written
+		 */
+		private void writeData() throws IOException {
+			if(count > 0)
+				writeChunk(out, "IDAT", buffer, count);
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/**
+ * ChartFile saves a BlockStore in a compact binary format and opens saved
+ * charts by memory mapping them. Opening a chart only reads its header and
+ * string index; the blocks are read from the mapped file when they are
+ * first used.
+ *
+ * The file starts with a header (magic, version, number of blocks, number
+ * of strings, offset of the string index) followed by a fixed size record
+ * per block (type, x, y, message, pre, next and branch, all ints). Types
+ * and messages are indices into a table of UTF-8 strings written after the
+ * records, each string stored once, and pre, next and branch are block ids
+ * or -1. Files of version 1 have no branch and are still read.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class ChartFile {
+	public static final String EXTENSION = ".fcc"; // extension of charts
+
+	private static final int MAGIC = 0x46434331; // "FCC1"
+	private static final int VERSION = 2;
+	private static final int HEADER = 24; // bytes in the header
+	private static final int RECORD = 28; // bytes in a block record
+	private static final int RECORD_V1 = 24; // bytes in a version 1 record
+	private static final int CHUNK = 1 << 16; // bytes written at a time
+
+	// Byte offsets of the fields of a block record
+	private static final int TYPE = 0;
+	private static final int X = 4;
+	private static final int Y = 8;
+	private static final int MSG = 12;
+	private static final int PRE = 16;
+	private static final int NEXT = 20;
+	private static final int BRANCH = 24;
+
+	private final ByteBuffer map; // mapped contents of the file
+	private final int blockCount; // number of blocks in the file
+	private final long index; // offset of the string index
+	private final int record; // bytes in a block record of the file
+
+	// Strings already read, by index
+	private final String[] strings;
+
+	/**
+	 * Constructor for ChartFile reading the header of a mapped chart
+	 * @param map mapped contents of the file
+	 * @throws IOException if the file isn't a chart
+	 */
+	private ChartFile(ByteBuffer map) throws IOException {
+		this.map = map;
+		if(map.limit() < HEADER || map.getInt(0) != MAGIC)
+			throw new IOException("Not a flowchart file");
+		if(map.getInt(4) != VERSION && map.getInt(4) != 1)
+			throw new IOException("Unsupported flowchart file version " +
+				map.getInt(4));
+		record = map.getInt(4) == 1 ? RECORD_V1 : RECORD;
+		blockCount = map.getInt(8);
+		int stringCount = map.getInt(12);
+		index = map.getLong(16);
+
+		// The records must fit before the strings, and the string index at
+		// the end of the file
+		long records = HEADER + (long) blockCount * record; // end of them
+		if(blockCount < 0 || stringCount < 0 || index < records ||
+				index > map.limit() ||
+				stringCount > (map.limit() - index) / 8)
+			throw new IOException("Not a flowchart file");
+
+		// Every string must be between the records and the index
+		for (int i = 0; i < stringCount; i++) {
+			long offset = map.getLong((int) index + i * 8);
+			if(offset < records || offset > index - 4)
+				throw new IOException("Not a flowchart file");
+			int length = map.getInt((int) offset);
+			if(length < 0 || offset + 4 + length > index)
+				throw new IOException("Not a flowchart file");
+		}
+		strings = new String[stringCount];
+	}
+
+	/**
+	 * Open a saved chart. The file is mapped and the blocks are read from
+	 * it as they are used.
+	 * @param path file to open
+	 * @return a store of the chart's blocks
+	 * @throws IOException if the file can't be read or isn't a chart
+	 */
+	public static BlockStore load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			// A single mapping can't be over 2GB
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Flowchart file too large: " + path);
+
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer map = channel.map(
+				FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			ChartFile file = new ChartFile(map);
+			return new BlockStore(file, file.getBlockCount());
+		}
+	}
+
+	/**
+	 * Save all blocks of a store, leaving out removed blocks
+	 * @param store store to save
+	 * @param path file to save to
+	 * @throws IOException if the file can't be written
+	 */
+	public static void save(BlockStore store, Path path) throws IOException {
+		// Strings written so far and their indices
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		ArrayList<String> table = new ArrayList<String>();
+
+		// Number the blocks left after skipping removed ones
+		int[] saved = new int[store.size()];
+		int count = 0;
+		for (int id = 0; id < store.size(); id++)
+			saved[id] = store.isRemoved(id) ? -1 : count++;
+
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK);
+
+			// Write the block records after the header
+			channel.position(HEADER);
+			for (int id = 0; id < store.size(); id++) {
+				if(saved[id] == -1)
+					continue;
+				if(buf.remaining() < RECORD)
+					drain(buf, channel);
+				buf.putInt(intern(store.getType(id).getName(), ids, table));
+				buf.putInt(store.getX(id));
+				buf.putInt(store.getY(id));
+				// Blocks without a message are saved with an empty one
+				String msg = store.getMsg(id);
+				buf.putInt(intern(msg == null ? "" : msg, ids, table));
+				buf.putInt(savedId(store.getPre(id), saved));
+				buf.putInt(savedId(store.getNext(id), saved));
+				buf.putInt(savedId(store.getBranch(id), saved));
+			}
+
+			// Write each string with its length in front
+			long[] offsets = new long[table.size()];
+			for (int i = 0; i < table.size(); i++) {
+				offsets[i] = channel.position() + buf.position();
+				byte[] bytes = table.get(i).getBytes(StandardCharsets.UTF_8);
+				if(buf.remaining() < 4 + bytes.length)
+					drain(buf, channel);
+
+				// Strings too long for the buffer are written directly
+				if(buf.remaining() < 4 + bytes.length) {
+					buf.putInt(bytes.length);
+					drain(buf, channel);
+					channel.write(ByteBuffer.wrap(bytes));
+				} else {
+					buf.putInt(bytes.length).put(bytes);
+				}
+			}
+
+			// Write the string index, then go back and write the header
+			long indexOffset = channel.position() + buf.position();
+			for (int i = 0; i < offsets.length; i++) {
+				if(buf.remaining() < 8)
+					drain(buf, channel);
+				buf.putLong(offsets[i]);
+			}
+			drain(buf, channel);
+
+			buf.putInt(MAGIC).putInt(VERSION).putInt(count)
+				.putInt(table.size()).putLong(indexOffset);
+			buf.flip();
+			channel.write(buf, 0);
+		}
+	}
+
+	/**
+	 * Get the index of a string in the string table, adding it if needed
+	 * @param s string to look up
+	 * @param ids indices of the strings in the table
+	 * @param table strings in the table
+	 * @return the index of the string
+	 */
+	private static int intern(String s, HashMap<String, Integer> ids,
+			ArrayList<String> table) {
+		Integer i = ids.get(s);
+		if(i == null) {
+			ids.put(s, i = table.size());
+			table.add(s);
+		}
+		return i;
+	}
+
+	/**
+	 * Get the id a linked block is saved with
+	 * @param id id of the block in the store, or -1
+	 * @param saved ids of the blocks in the file
+	 * @return the id of the block in the file, or -1 if there is none or
+	 * it was removed
+	 */
+	private static int savedId(int id, int[] saved) {
+		return id == -1 ? -1 : saved[id];
+	}
+
+	/**
+	 * Write out and empty a buffer
+	 * @param buf buffer to write
+	 * @param channel channel to write to
+	 * @throws IOException if the buffer can't be written
+	 */
+	private static void drain(ByteBuffer buf, FileChannel channel)
+			throws IOException {
+		buf.flip();
+		while(buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * Getter for blockCount
+	 * @return the number of blocks in the file
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	// Getters for the fields of a block record
+	public String getType(int id) {
+		return getString(map.getInt(record(id) + TYPE));
+	}
+
+	public int getX(int id) {
+		return map.getInt(record(id) + X);
+	}
+
+	public int getY(int id) {
+		return map.getInt(record(id) + Y);
+	}
+
+	public String getMsg(int id) {
+		return getString(map.getInt(record(id) + MSG));
+	}
+
+	public int getPre(int id) {
+		return map.getInt(record(id) + PRE);
+	}
+
+	public int getNext(int id) {
+		return map.getInt(record(id) + NEXT);
+	}
+
+	public int getBranch(int id) {
+		return record == RECORD_V1 ? -1 : map.getInt(record(id) + BRANCH);
+	}
+
+	/**
+	 * Get the offset of a block's record
+	 * @param id id of the block
+	 * @return the offset of the record in the file
+	 */
+	private int record(int id) {
+		return HEADER + id * record;
+	}
+
+	/**
+	 * Read a string from the string table, reusing it if already read
+	 * @param i index of the string
+	 * @return the string
+	 * @throws IllegalArgumentException if the file has no such string
+	 */
+	private String getString(int i) {
+		if(i < 0 || i >= strings.length)
+			throw new IllegalArgumentException("Unknown string " + i +
+				" in flowchart file");
+		if(strings[i] == null) {
+			int offset = (int) map.getLong((int) index + i * 8);
+			byte[] bytes = new byte[map.getInt(offset)];
+			ByteBuffer dup = map.duplicate();
+			dup.position(offset + 4);
+			dup.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return strings[i];
+	}
+}
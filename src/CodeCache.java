@@ -0,0 +1,478 @@
+/**
+ * CodeCache keeps the code generated for a chain of blocks, so the code
+ * can be generated again after an edit without converting every block.
+ * The chain is split into a tree of subchains, one for each block opening
+ * a brace, holding the blocks up to and including the block closing it,
+ * unless that block opens another brace like "} else {". Each subchain
+ * keeps a hash of the types and messages of its blocks and nested
+ * subchains, and the code generated for it.
+ *
+ * Editing a message only invalidates the subchains around the edited
+ * block, from the innermost one out to the whole chain, and generating
+ * the code again only converts their own blocks, reusing the code of the
+ * subchains nested in them. Relinking blocks or changing which braces they
+ * open or close rebuilds the tree, but subchains hashing the same as before
+ * still keep their code. The cache listens to the store of its blocks, so
+ * it sees every change however it was made, and can be used from any
+ * thread. It holds the code of each subchain in full, so it takes about
+ * as many times the size of the code as braces are nested.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.util.Arrays;
+
+public class CodeCache implements StoreListener {
+	private static final int INITIAL_CAPACITY = 64; // blocks before growing
+	private static final int NONE = -1; // id of a missing block
+
+	// Bits of the kind of a block in the chain
+	private static final byte MEMBER = 1; // block is in the chain
+	private static final byte OPENS = 2; // block opens a brace
+	private static final byte CLOSES = 4; // block closes a brace
+
+	// FNV-1a parameters for hashing blocks and subchains
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final BlockStore store; // store of the blocks
+
+	// First and last block of the chain the tree was built from, and its
+	// number of blocks
+	private int first = NONE;
+	private int last = NONE;
+	private int count = 0;
+	private int regenerated = 0; // blocks converted by the last call
+
+	// Of each block in the chain: its kind, its next block, the block
+	// opening the subchain it is in, and its number of open braces
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+	private int[] nexts = new int[INITIAL_CAPACITY];
+	private int[] parents = new int[INITIAL_CAPACITY];
+	private int[] levels = new int[INITIAL_CAPACITY];
+
+	// Hash of each block's type and message, and the message it was
+	// hashed from, which is only replaced by setMsg
+	private long[] blockHashes = new long[INITIAL_CAPACITY];
+	private String[] hashed = new String[INITIAL_CAPACITY];
+
+	// Of each block opening a subchain: the block closing it, its hash,
+	// code and the number of open braces the code was indented for, and
+	// whether it has to be hashed again
+	private int[] ends = new int[INITIAL_CAPACITY];
+	private long[] hashes = new long[INITIAL_CAPACITY];
+	private String[] fragments = new String[INITIAL_CAPACITY];
+	private int[] fragmentLevels = new int[INITIAL_CAPACITY];
+	private boolean[] dirty = new boolean[INITIAL_CAPACITY];
+
+	// Code and hash of the whole chain
+	private String code;
+	private long hash;
+	private boolean codeDirty = true;
+
+	// Whether the tree has to be built again
+	private boolean rebuild = true;
+
+	// Blocks changed since the code was last generated, and whether so many
+	// changed that they weren't kept. Guarded by their own lock, so threads
+	// changing the store never wait for code being generated.
+	private final Object changeLock = new Object();
+	private int[] changed = new int[INITIAL_CAPACITY];
+	private int changes = 0;
+	private boolean overflowed = false;
+	private int[] taken = new int[INITIAL_CAPACITY]; // changes being taken
+
+	/**
+	 * Constructor for CodeCache, listening to a store until closed
+	 * @param store store of the blocks to generate code for
+	 */
+	public CodeCache(BlockStore store) {
+		this.store = store;
+		store.addListener(this);
+	}
+
+	/**
+	 * Stop listening to the store, after which the cache must not be used
+	 */
+	public void close() {
+		store.removeListener(this);
+	}
+
+	/**
+	 * Getter for store
+	 * @return the store of the blocks the cache generates code for
+	 */
+	public BlockStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Getter for regenerated
+	 * @return the number of blocks converted by the last call to getCode,
+	 * the other blocks' code having been reused
+	 */
+	public synchronized int getRegenerated() {
+		return regenerated;
+	}
+
+	/**
+	 * Write the code for the chain a block belongs to
+	 * @param block any block in the chain
+	 * @param out destination of the generated code
+	 * @return the number of blocks in the chain
+	 * @throws IOException if the code can't be written
+	 */
+	public synchronized int generate(FlowchartBlock block, Writer out)
+			throws IOException {
+		out.write(getCode(block));
+		out.flush();
+		return count;
+	}
+
+	/**
+	 * Get the code for the chain a block belongs to, generating the code of
+	 * the parts that changed since it was last asked for
+	 * @param block any block in the chain
+	 * @return the code
+	 * @throws IllegalArgumentException if the block isn't in the store
+	 */
+	public synchronized String getCode(FlowchartBlock block) {
+		if(block.getStore() != store)
+			throw new IllegalArgumentException(
+				"Block is from a different chart");
+		Telemetry.Span generating = Telemetry.CODEGEN.begin();
+		regenerated = 0;
+		int id = block.getId();
+		takeChanges();
+		if(rebuild || id >= kinds.length || (kinds[id] & MEMBER) == 0)
+			build(id);
+		regenerate(NONE);
+		generating.end(regenerated);
+		return code;
+	}
+
+	/**
+	 * Remember that a block changed, to be looked at the next time the
+	 * code is asked for
+	 * @param id id of the block
+	 */
+	@Override
+	public void blockChanged(int id) {
+		synchronized(changeLock) {
+			if(overflowed)
+				return;
+
+			// Building the tree again is cheaper than going through most
+			// of it
+			if(changes == changed.length) {
+				if(changes > store.size() / 2) {
+					overflowed = true;
+					changes = 0;
+					return;
+				}
+				changed = Arrays.copyOf(changed, changes * 2);
+			}
+			changed[changes++] = id;
+		}
+	}
+
+	/**
+	 * Go through the blocks changed since the code was last generated,
+	 * invalidating the subchains around them or the whole tree if the
+	 * chain itself changed
+	 */
+	private void takeChanges() {
+		int n;
+		boolean all;
+		synchronized(changeLock) {
+			int[] swap = taken;
+			taken = changed;
+			changed = swap;
+			n = changes;
+			changes = 0;
+			all = overflowed;
+			overflowed = false;
+		}
+		if(all) {
+			rebuild = true;
+			Arrays.fill(hashed, null);
+		}
+		for (int i = 0; i < n; i++) {
+			if(taken[i] < hashed.length)
+				hashed[taken[i]] = null;
+		}
+		for (int i = 0; i < n && !rebuild; i++) {
+			int id = taken[i];
+			if(id >= kinds.length || (kinds[id] & MEMBER) == 0)
+				continue;
+
+			// Links and braces shape the tree, messages only the code
+			BlockType type = store.getType(id);
+			if(type == null || kind(type, store.getMsg(id)) != kinds[id] ||
+					store.getNext(id) != nexts[id] ||
+					id == first && linked(store.getPre(id)))
+				rebuild = true;
+			else
+				invalidate(id);
+		}
+	}
+
+	/**
+	 * Invalidate the subchains a block is in, out to the whole chain
+	 * @param id id of the block
+	 */
+	private void invalidate(int id) {
+		codeDirty = true;
+		int node = (kinds[id] & OPENS) != 0 ? id : parents[id];
+		while(node != NONE && !dirty[node]) {
+			dirty[node] = true;
+			node = parents[node];
+		}
+	}
+
+	/**
+	 * Build the tree of subchains of the chain a block belongs to
+	 * @param id id of any block in the chain
+	 */
+	private void build(int id) {
+		if(store.size() > kinds.length)
+			grow(store.size());
+		Arrays.fill(kinds, (byte) 0);
+		first = CodeGenerator.getFirst(store, id);
+		last = NONE;
+		count = 0;
+		codeDirty = true;
+		rebuild = false;
+
+		// Follow the chain, stopping if it loops back on itself, with the
+		// blocks opening the subchains around each block on a stack
+		int[] open = new int[16];
+		int top = 0;
+		for (id = first; linked(id) && (kinds[id] & MEMBER) == 0;
+				id = nexts[id]) {
+			byte kind = kind(store.getType(id), store.getMsg(id));
+			int closed = NONE;
+			if((kind & CLOSES) != 0 && top > 0) {
+				closed = open[--top];
+				ends[closed] = id;
+			}
+			if(closed != NONE && (kind & OPENS) == 0)
+				parents[id] = closed;
+			else
+				parents[id] = top > 0 ? open[top - 1] : NONE;
+			levels[id] = top;
+			if((kind & OPENS) != 0) {
+				if(top == open.length)
+					open = Arrays.copyOf(open, top * 2);
+				open[top++] = id;
+				ends[id] = NONE;
+				dirty[id] = true;
+			}
+			kinds[id] = kind;
+			nexts[id] = store.getNext(id);
+			last = id;
+			count++;
+		}
+	}
+
+	/**
+	 * Hash a subchain again if it was invalidated, and generate its code
+	 * if its hash or indent changed, reusing the code of the subchains
+	 * nested in it
+	 * @param node block opening the subchain, or -1 for the whole chain
+	 */
+	private void regenerate(int node) {
+		boolean whole = node == NONE;
+		if(whole ? !codeDirty : !dirty[node] &&
+				fragmentLevels[node] == levels[node])
+			return;
+
+		// Hash the subchain and its indent, bringing the nested subchains up
+		// to date first
+		int start = whole ? first : following(node);
+		int end = whole ? NONE : ends[node];
+		long h = whole ? FNV_OFFSET :
+			mix(mix(FNV_OFFSET, levels[node]), blockHash(node));
+		int length = 0;
+		for (int id = start; id != NONE && id != end; id = skip(id)) {
+			if((kinds[id] & OPENS) != 0) {
+				regenerate(id);
+				h = mix(h, hashes[id]);
+				length += fragments[id].length();
+			} else {
+				h = mix(h, blockHash(id));
+				length += 32;
+			}
+		}
+		if(!whole && keepsEnd(node))
+			h = mix(h, blockHash(end));
+
+		// Keep the code if the subchain hashes the same
+		if(whole && h == hash && code != null) {
+			codeDirty = false;
+			return;
+		} else if(!whole && h == hashes[node] && fragments[node] != null &&
+				fragmentLevels[node] == levels[node]) {
+			dirty[node] = false;
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder(length + 32);
+		if(!whole)
+			line(sb, node);
+		String enumName = whole ? null : CodeGenerator.getEnumName(
+			store.getType(node), trimmed(node));
+		for (int id = start, pre = NONE; id != NONE && id != end;
+				pre = id, id = skip(id)) {
+			if(enumName != null && pre != NONE && CodeGenerator.endsConstants(
+					enumName, store.getType(pre), trimmed(pre),
+					store.getType(id), trimmed(id))) {
+				for (int i = 0; i < levels[id]; i++)
+					sb.append('\t');
+				sb.append(';').append(System.lineSeparator());
+			}
+			if((kinds[id] & OPENS) != 0)
+				sb.append(fragments[id]);
+			else
+				line(sb, id);
+		}
+		if(!whole && keepsEnd(node))
+			line(sb, end);
+		if(whole) {
+			code = sb.toString();
+			hash = h;
+			codeDirty = false;
+		} else {
+			fragments[node] = sb.toString();
+			hashes[node] = h;
+			fragmentLevels[node] = levels[node];
+			dirty[node] = false;
+		}
+	}
+
+	/**
+	 * Get the block after a block in the chain
+	 * @param id id of the block
+	 * @return the id of the next block, or -1 after the last block
+	 */
+	private int following(int id) {
+		return id == last ? NONE : nexts[id];
+	}
+
+	/**
+	 * Get the block after a block and the subchain it opens, if any
+	 * @param id id of the block
+	 * @return the id of the next block at the same level, or -1
+	 */
+	private int skip(int id) {
+		if((kinds[id] & OPENS) == 0)
+			return following(id);
+		return keepsEnd(id) ? following(ends[id]) : ends[id];
+	}
+
+	/**
+	 * Check if the block closing a subchain is part of it, rather than
+	 * opening the next subchain
+	 * @param node block opening the subchain
+	 * @return true if the subchain is closed by a block that opens nothing
+	 */
+	private boolean keepsEnd(int node) {
+		return ends[node] != NONE && (kinds[ends[node]] & OPENS) == 0;
+	}
+
+	/**
+	 * Write the indented line of code of one block
+	 * @param sb code being generated
+	 * @param id id of the block
+	 */
+	private void line(StringBuilder sb, int id) {
+		for (int i = 0; i < levels[id]; i++)
+			sb.append('\t');
+		sb.append(CodeGenerator.getCode(store.getType(id), trimmed(id)));
+		sb.append(System.lineSeparator());
+		regenerated++;
+	}
+
+	/**
+	 * Get the trimmed message of a block
+	 * @param id id of the block
+	 * @return the message without surrounding spaces, "" if it has none
+	 */
+	private String trimmed(int id) {
+		String msg = store.getMsg(id);
+		return msg == null ? "" : msg.trim();
+	}
+
+	/**
+	 * Get the hash of a block's type and message, hashing it again only if
+	 * the block changed since
+	 * @param id id of the block
+	 * @return the hash
+	 */
+	private long blockHash(int id) {
+		String msg = store.getMsg(id);
+		if(msg == null || hashed[id] != msg) {
+			long h = mix(FNV_OFFSET, store.getType(id).ordinal());
+			for (int i = 0; msg != null && i < msg.length(); i++)
+				h = mix(h, msg.charAt(i));
+			blockHashes[id] = h;
+			hashed[id] = msg;
+		}
+		return blockHashes[id];
+	}
+
+	/**
+	 * Add a value to a hash
+	 * @param h hash so far
+	 * @param value value to add
+	 * @return the new hash
+	 */
+	private static long mix(long h, long value) {
+		return (h ^ value) * FNV_PRIME;
+	}
+
+	/**
+	 * Get the kind of a block from its type and message
+	 * @param type type of the block
+	 * @param msg message of the block, may be null
+	 * @return the kind, with the MEMBER bit set
+	 */
+	private static byte kind(BlockType type, String msg) {
+		msg = msg == null ? "" : msg.trim();
+		byte kind = MEMBER;
+		if(CodeGenerator.opens(type, msg))
+			kind |= OPENS;
+		if(CodeGenerator.closes(type, msg))
+			kind |= CLOSES;
+		return kind;
+	}
+
+	/**
+	 * Check if a link leads to a block
+	 * @param id id of the linked block, or -1
+	 * @return false if there is no block or it was removed
+	 */
+	private boolean linked(int id) {
+		return id != NONE && !store.isRemoved(id);
+	}
+
+	/**
+	 * Grow the arrays to hold every block id
+	 * @param capacity least number of blocks to hold
+	 */
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, kinds.length * 2);
+		kinds = Arrays.copyOf(kinds, capacity);
+		nexts = Arrays.copyOf(nexts, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+		levels = Arrays.copyOf(levels, capacity);
+		blockHashes = Arrays.copyOf(blockHashes, capacity);
+		hashed = Arrays.copyOf(hashed, capacity);
+		ends = Arrays.copyOf(ends, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		fragments = Arrays.copyOf(fragments, capacity);
+		fragmentLevels = Arrays.copyOf(fragmentLevels, capacity);
+		dirty = Arrays.copyOf(dirty, capacity);
+	}
+}
@@ -0,0 +1,343 @@
+/**
+ * CodeGenerator turns a chain of flowchart blocks back into Java code. The
+ * chain is followed one block id at a time through the store's next links
+ * and each line of code is written out as soon as it is generated, so
+ * charts of any length can be converted without recursion, block objects
+ * or building the code in memory. The chain keeps the blocks in the order
+ * of the code, so the branches of decisions and loops need no following.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.regex.*;
+
+public class CodeGenerator {
+	// Prefixes of terminator messages opening and closing a block of code
+	private static final String BEGIN = "Begin ";
+	private static final String END = "End ";
+
+	// Prefix of data messages printing a line of text
+	private static final String PRINT = "Print ";
+
+	// Class header whose name may have been written with spaces
+	private static final Pattern CLASS_HEADER = Pattern.compile(
+		"((?:.* )?(?:class|interface|enum) )(.+?)"
+		+ "(( extends| implements|<).*)?");
+
+	// Header of enum constants with a body, such as "DATA(\"Data\")" or
+	// ", TERMINATOR", as the parser leaves the comma before every constant
+	// but the first
+	private static final Pattern CONSTANT_HEADER = Pattern.compile(
+		"(?:, *)?([\\w$]+)(?: *\\(.*\\))?(?: *, *[\\w$]+(?: *\\(.*\\))?)*");
+
+	private static final int NONE = -1; // id of a missing block
+
+	private Writer out; // destination of the generated code
+	private int depth = 0; // number of open braces
+	private int count = 0; // number of blocks converted
+
+	// Name of the enum each open brace opened, null for other braces, and
+	// the last block written
+	private ArrayList<String> enums = new ArrayList<String>();
+	private BlockType lastType;
+	private String lastMsg;
+
+	/**
+	 * Constructor for CodeGenerator
+	 * @param out destination of the generated code
+	 */
+	public CodeGenerator(Writer out) {
+		// Buffer the writer unless it already is
+		if(out instanceof BufferedWriter)
+			this.out = out;
+		else
+			this.out = new BufferedWriter(out);
+	}
+
+	/**
+	 * Write the code for the chain a block belongs to
+	 * @param block any block in the chain
+	 * @param out destination of the generated code
+	 * @return the number of blocks converted
+	 * @throws IOException if the code can't be written
+	 */
+	public static int generate(FlowchartBlock block, Writer out)
+			throws IOException {
+		return new CodeGenerator(out).generate(block);
+	}
+
+	/**
+	 * Write the code for the chain a block belongs to as UTF-8
+	 * @param block any block in the chain
+	 * @param out destination of the generated code
+	 * @return the number of blocks converted
+	 * @throws IOException if the code can't be written
+	 */
+	public static int generate(FlowchartBlock block, OutputStream out)
+			throws IOException {
+		return generate(block, new OutputStreamWriter(out,
+			StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Write the code for the chain a block belongs to, starting from the
+	 * first block of the chain
+	 * @param block any block in the chain
+	 * @return the number of blocks converted
+	 * @throws IOException if the code can't be written
+	 */
+	public int generate(FlowchartBlock block) throws IOException {
+		return generate(block.getStore(), block.getId());
+	}
+
+	/**
+	 * Write the code for the chain a block belongs to, starting from the
+	 * first block of the chain, reading the blocks straight from their
+	 * store
+	 * @param store store holding the blocks
+	 * @param id id of any block in the chain
+	 * @return the number of blocks converted
+	 * @throws IOException if the code can't be written
+	 */
+	public int generate(BlockStore store, int id) throws IOException {
+		Telemetry.Span generating = Telemetry.CODEGEN.begin();
+		int start = getFirst(store, id);
+
+		// Follow the chain, stopping if it loops back on itself. The slow
+		// block moves at half speed and can only be caught up to in a loop
+		int slow = start;
+		boolean moveSlow = false;
+		for (id = start; linked(store, id); id = store.getNext(id)) {
+			write(store.getType(id), store.getMsg(id));
+			if(moveSlow)
+				slow = store.getNext(slow);
+			moveSlow = !moveSlow;
+			int next = store.getNext(id);
+			if(next == start || next == slow)
+				break;
+		}
+
+		out.flush();
+		generating.end(count);
+		return count;
+	}
+
+	/**
+	 * Find the first block of the chain a block belongs to
+	 * @param block any block in the chain
+	 * @return the first block, or block itself if the chain is a loop
+	 */
+	public static FlowchartBlock getFirst(FlowchartBlock block) {
+		return block.getStore().getBlock(getFirst(block.getStore(),
+			block.getId()));
+	}
+
+	/**
+	 * Find the first block of the chain a block belongs to
+	 * @param store store holding the blocks
+	 * @param id id of any block in the chain
+	 * @return the id of the first block, or id itself if the chain is a
+	 * loop
+	 */
+	public static int getFirst(BlockStore store, int id) {
+		// Same loop check as generating, going backwards
+		int slow = id;
+		int first = id;
+		boolean moveSlow = false;
+		while(linked(store, store.getPre(first)) &&
+				store.getPre(first) != slow) {
+			first = store.getPre(first);
+			if(moveSlow)
+				slow = store.getPre(slow);
+			moveSlow = !moveSlow;
+		}
+		return linked(store, store.getPre(first)) ? id : first;
+	}
+
+	/**
+	 * Check if a link leads to a block
+	 * @param store store holding the blocks
+	 * @param id id of the linked block, or -1
+	 * @return false if there is no block or it was removed
+	 */
+	private static boolean linked(BlockStore store, int id) {
+		return id != NONE && !store.isRemoved(id);
+	}
+
+	/**
+	 * Write the code of one block
+	 * @param type type of the block
+	 * @param msg message of the block
+	 * @throws IOException if the code can't be written
+	 */
+	private void write(BlockType type, String msg) throws IOException {
+		msg = msg == null ? "" : msg.trim();
+		count++;
+		if(closes(type, msg))
+			depth = Math.max(depth - 1, 0);
+		if(endsConstants(depth > 0 ? enums.get(depth - 1) : null, lastType,
+				lastMsg, type, msg))
+			line(";");
+		line(getCode(type, msg));
+		if(opens(type, msg)) {
+			while(enums.size() <= depth)
+				enums.add(null);
+			enums.set(depth, getEnumName(type, msg));
+			depth++;
+		}
+		lastType = type;
+		lastMsg = msg;
+	}
+
+	/**
+	 * Check if a block opens a brace: terminators beginning a class or
+	 * method and blocks ending with "{"
+	 * @param type type of the block
+	 * @param msg trimmed message of the block
+	 * @return true if the code after the block is indented one more level
+	 */
+	static boolean opens(BlockType type, String msg) {
+		if(type == BlockType.TERMINATOR)
+			return msg.startsWith(BEGIN);
+		return msg.endsWith("{");
+	}
+
+	/**
+	 * Check if a block closes a brace: terminators ending a class or method
+	 * and blocks starting with "}"
+	 * @param type type of the block
+	 * @param msg trimmed message of the block
+	 * @return true if the block is indented one less level
+	 */
+	static boolean closes(BlockType type, String msg) {
+		if(type == BlockType.TERMINATOR)
+			return msg.startsWith(END);
+		return msg.startsWith("}");
+	}
+
+	/**
+	 * Get the line of code of one block, without its indent
+	 * @param type type of the block
+	 * @param msg trimmed message of the block
+	 * @return the code
+	 */
+	static String getCode(BlockType type, String msg) {
+		if(type == BlockType.TERMINATOR) {
+			// Terminators open and close classes and methods
+			if(msg.startsWith(BEGIN))
+				return getHeader(msg.substring(BEGIN.length())) + " {";
+			else if(msg.startsWith(END))
+				return "}";
+			return "// " + msg;
+		}
+
+		// Data and decision blocks are statements or the braces of control
+		// statements
+		if(msg.startsWith(PRINT))
+			return "System.out.println(\"" + escape(
+				msg.substring(PRINT.length())) + "\");";
+		else if(opens(type, msg) || msg.equals("}") || msg.endsWith(";"))
+			return msg;
+
+		// Any other "}" ends an array initializer, lambda or anonymous
+		// class inside the statement
+		return msg + ";";
+	}
+
+	/**
+	 * Get the name of the enum a terminator begins
+	 * @param type type of the block
+	 * @param msg trimmed message of the block
+	 * @return the name, or null if the block doesn't begin an enum
+	 */
+	static String getEnumName(BlockType type, String msg) {
+		if(type != BlockType.TERMINATOR || !msg.startsWith(BEGIN))
+			return null;
+		Matcher m = CLASS_HEADER.matcher(msg.substring(BEGIN.length()));
+		if(!m.matches() || !m.group(1).endsWith("enum "))
+			return null;
+		return m.group(2).replace(" ", "");
+	}
+
+	/**
+	 * Check if the semicolon ending the constants of an enum goes before a
+	 * block. The parser drops it like the semicolons ending statements, and
+	 * it is only needed after a constant with a body followed by other
+	 * members.
+	 * @param enumName name of the enum the block is directly in, or null
+	 * @param preType type of the block before it in the enum, or null
+	 * @param preMsg trimmed message of the block before it, the beginning
+	 * or end of a constant
+	 * @param type type of the block
+	 * @param msg trimmed message of the block
+	 * @return true if a line with the semicolon goes before the block
+	 */
+	static boolean endsConstants(String enumName, BlockType preType,
+			String preMsg, BlockType type, String msg) {
+		if(enumName == null || !isConstant(enumName, preType, preMsg))
+			return false;
+
+		// Other constants, with a body or without, and the end of the enum
+		// don't need it
+		return !isConstant(enumName, type, msg) && !closes(type, msg) &&
+			!(type != BlockType.TERMINATOR && msg.startsWith(","));
+	}
+
+	/**
+	 * Check if a terminator begins or ends an enum constant with a body,
+	 * rather than a constructor, method or class of the enum
+	 * @param enumName name of the enum
+	 * @param type type of the block, or null
+	 * @param msg trimmed message of the block
+	 * @return true if the block begins or ends a constant
+	 */
+	private static boolean isConstant(String enumName, BlockType type,
+			String msg) {
+		if(type != BlockType.TERMINATOR)
+			return false;
+		String header = msg.startsWith(BEGIN) ? msg.substring(BEGIN.length())
+			: msg.startsWith(END) ? msg.substring(END.length()) : null;
+		if(header == null)
+			return false;
+		Matcher m = CONSTANT_HEADER.matcher(header);
+		return m.matches() && !m.group(1).equals(enumName);
+	}
+
+	/**
+	 * Turn the header of a terminator into a declaration, joining up class
+	 * names written with spaces like "class Hello World"
+	 * @param header text after "Begin "
+	 * @return the declaration
+	 */
+	private static String getHeader(String header) {
+		Matcher m = CLASS_HEADER.matcher(header);
+		if(!m.matches())
+			return header;
+		return m.group(1) + m.group(2).replace(" ", "") +
+			(m.group(3) == null ? "" : m.group(3));
+	}
+
+	/**
+	 * Escape text to be put in a string literal
+	 * @param s text to escape
+	 * @return the escaped text
+	 */
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Write an indented line of code
+	 * @param code code on the line
+	 * @throws IOException if the code can't be written
+	 */
+	private void line(String code) throws IOException {
+		for (int i = 0; i < depth; i++)
+			out.write('\t');
+		out.write(code);
+		out.write(System.lineSeparator());
+	}
+}
@@ -0,0 +1,614 @@
+/**
+ * CodeParser reads Java source code as a stream and turns it into a chain
+ * of flowchart blocks. Classes and methods become terminator blocks, the
+ * headers of if statements and loops become decision blocks and other
+ * statements become data blocks. Jumps in the flow of control, such as
+ * out of an if, back to the top of a loop or out of a break or return,
+ * are set as branches of the blocks they leave from. Blocks are handed to
+ * a BlockSink as soon as they are parsed, so only the statement being read
+ * and the stack of open braces are ever held in memory. The parser can
+ * also split the code into class level regions, with or without creating
+ * blocks.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+public class CodeParser {
+	private static final int CHUNK = 8192; // chars read at a time
+
+	// States of the character scanner
+	private static final int CODE = 0;
+	private static final int SLASH = 1; // read a '/' in code
+	private static final int LINE_COMMENT = 2;
+	private static final int BLOCK_COMMENT = 3;
+	private static final int BLOCK_COMMENT_STAR = 4; // read a '*' in comment
+	private static final int STRING = 5;
+	private static final int CHAR = 6;
+
+	// Headers opening a class and headers opening a control statement
+	private static final Pattern CLASS_HEADER =
+		Pattern.compile("(^|.* )(class|interface|enum) .*");
+	private static final Pattern CONTROL_HEADER = Pattern.compile(
+		"(if|else|for|while|do|switch|try|catch|finally)\\b.*|static|"
+		+ "synchronized ?\\(.*");
+	private static final Pattern ANNOTATIONS =
+		Pattern.compile("^(@[\\w.]+(\\([^)]*\\))? ?)+");
+
+	// Control statements and statements jumping out of them
+	private static final Pattern IF = Pattern.compile("(else ?)?if\\b.*");
+	private static final Pattern LOOP = Pattern.compile("(for|while)\\b.*");
+	private static final Pattern SWITCH = Pattern.compile("switch\\b.*");
+	private static final Pattern RETURN =
+		Pattern.compile("(return|throw)\\b.*");
+
+	// Kinds of open braces
+	private static final int BLOCK = 0; // bare block or other statement
+	private static final int BEGIN = 1; // class or method
+	private static final int IF_BODY = 2; // if or else if
+	private static final int ELSE_BODY = 3;
+	private static final int LOOP_BODY = 4; // for or while
+	private static final int DO_BODY = 5;
+	private static final int SWITCH_BODY = 6;
+
+	// Marks a brace closed by a "}" data block instead of a terminator
+	private static final String CLOSE_BRACE = "}";
+
+	// FNV-1a parameters for fingerprinting regions
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Reader in; // source code being parsed
+	private BlockSink sink; // receiver of the parsed blocks
+	private BlockCanvas canv; // canvas the blocks are created for
+	private BlockStore store; // store for a first block without a pre
+
+	// Position of the next block
+	private double x;
+	private double y;
+
+	private FlowchartBlock pre; // previous block parsed
+	private int count = 0; // number of blocks parsed
+
+	// Text of the statement being read
+	private StringBuilder text = new StringBuilder();
+
+	// Message closing each open brace, or "" for braces with no block
+	private ArrayDeque<String> closers = new ArrayDeque<String>();
+
+	// Control statement of each open brace, next to its closer
+	private ArrayDeque<Control> controls = new ArrayDeque<Control>();
+
+	// Blocks branching to the next block parsed, and the statement closed
+	// just before it, whose exits also branch there unless an else follows
+	private ArrayList<FlowchartBlock> pending =
+		new ArrayList<FlowchartBlock>();
+	private Control closed;
+
+	private int state = CODE;
+	private boolean escaped = false; // last char in a literal was '\'
+	private int parenDepth = 0; // open parentheses in the statement
+	private int exprDepth = 0; // open braces inside an expression
+	private boolean assigned = false; // statement has an assignment
+
+	// Class level regions found so far, or null if not splitting
+	private List<CodeRegion> regions;
+	private boolean createBlocks = true; // false to only find regions
+	private int offset = 0; // number of chars read
+	private int regionStart = 0; // offset of the region being read
+	private int regionCount = 0; // blocks parsed in the region being read
+	private long regionHash = FNV_OFFSET; // fingerprint of the region
+
+	/**
+	 * Constructor for CodeParser
+	 * @param in source code to parse
+	 * @param sink receiver of the parsed blocks
+	 * @param x x coordinate of the first block
+	 * @param y y coordinate of the first block
+	 * @param c canvas to create the blocks for, may be null
+	 */
+	public CodeParser(Reader in, BlockSink sink, double x, double y,
+			BlockCanvas c) {
+		this.in = in;
+		this.sink = sink;
+		this.x = x;
+		this.y = y;
+		this.canv = c;
+	}
+
+	/**
+	 * Parse source code into blocks stacked below each other
+	 * @param in source code to parse
+	 * @param sink receiver of the parsed blocks
+	 * @param x x coordinate of the first block
+	 * @param y y coordinate of the first block
+	 * @param c canvas to create the blocks for, may be null
+	 * @return the last block parsed, or null if there were none
+	 * @throws IOException if the source code can't be read
+	 */
+	public static FlowchartBlock parse(Reader in, BlockSink sink, double x,
+			double y, BlockCanvas c) throws IOException {
+		return new CodeParser(in, sink, x, y, c).parse();
+	}
+
+	/**
+	 * Read all of the source code and pass its blocks to the sink
+	 * @return the last block parsed, or null if there were none
+	 * @throws IOException if the source code can't be read
+	 */
+	public FlowchartBlock parse() throws IOException {
+		Telemetry.Span parsing = Telemetry.PARSE.begin();
+		char[] chunk = new char[CHUNK];
+		int n;
+		while((n = in.read(chunk)) != -1) {
+			for (int i = 0; i < n; i++) {
+				offset++;
+				if(regions != null)
+					regionHash = (regionHash ^ chunk[i]) * FNV_PRIME;
+				scan(chunk[i]);
+			}
+		}
+
+		// Flush a trailing statement without a semicolon
+		endStatement();
+		if(regions != null && offset > regionStart)
+			endRegion(null);
+		parsing.end(count);
+		return pre;
+	}
+
+	/**
+	 * Split the code into class level regions as it is parsed: methods,
+	 * fields and other statements inside a class, and the headers and 
+	 * closing braces of classes. Each region can be parsed on its own.
+	 * @param regions list to add the regions to
+	 * @param createBlocks false to only find the regions without creating
+	 * any blocks
+	 */
+	public void splitInto(List<CodeRegion> regions, boolean createBlocks) {
+		this.regions = regions;
+		this.createBlocks = createBlocks;
+	}
+
+	/**
+	 * Setter for pre
+	 * @param pre block the first parsed block follows, may be null
+	 */
+	public void setPre(FlowchartBlock pre) {
+		this.pre = pre;
+	}
+
+	/**
+	 * Setter for store
+	 * @param store store to add the first block to if it has no pre, 
+	 * instead of the canvas's store or a new one
+	 */
+	public void setStore(BlockStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Parse code as if a block had already been opened before it, so its
+	 * closing brace is matched
+	 * @param closer message of the block closing it, as in a CodeRegion
+	 */
+	public void openBlock(String closer) {
+		closers.push(closer);
+		controls.push(new Control(BLOCK, null));
+	}
+
+	/**
+	 * Getter for count
+	 * @return the number of blocks parsed so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Feed the next character of source code to the scanner
+	 * @param ch character read
+	 */
+	private void scan(char ch) {
+		switch(state) {
+		case SLASH:
+			// A second '/' or a '*' starts a comment, otherwise it was code
+			if(ch == '/') {
+				state = LINE_COMMENT;
+				return;
+			} else if(ch == '*') {
+				state = BLOCK_COMMENT;
+				return;
+			}
+			state = CODE;
+			append('/');
+			break; // handle ch as code below
+		case LINE_COMMENT:
+			if(ch == '\n') {
+				state = CODE;
+				space();
+			}
+			return;
+		case BLOCK_COMMENT:
+			if(ch == '*')
+				state = BLOCK_COMMENT_STAR;
+			return;
+		case BLOCK_COMMENT_STAR:
+			if(ch == '/') {
+				state = CODE;
+				space();
+			} else if(ch != '*') {
+				state = BLOCK_COMMENT;
+			}
+			return;
+		case STRING:
+		case CHAR:
+			// Copy literals as they are until their closing quote
+			text.append(ch);
+			if(escaped)
+				escaped = false;
+			else if(ch == '\\')
+				escaped = true;
+			else if(ch == (state == STRING ? '"' : '\''))
+				state = CODE;
+			return;
+		}
+
+		// Handle a character of code
+		switch(ch) {
+		case '/':
+			state = SLASH;
+			break;
+		case '"':
+			state = STRING;
+			append(ch);
+			break;
+		case '\'':
+			state = CHAR;
+			append(ch);
+			break;
+		case '(':
+			parenDepth++;
+			append(ch);
+			break;
+		case ')':
+			parenDepth--;
+			append(ch);
+			break;
+		case '=':
+			// Tell assignments apart from ==, !=, <= and >= comparisons
+			if(parenDepth == 0 && exprDepth == 0) {
+				char last = text.length() > 0 ?
+					text.charAt(text.length() - 1) : ' ';
+				if(last == '=')
+					assigned = false;
+				else if(last != '!' && last != '<' && last != '>')
+					assigned = true;
+			}
+			append(ch);
+			break;
+		case ';':
+			// Semicolons inside for headers or lambdas don't end statements
+			if(parenDepth > 0 || exprDepth > 0) {
+				append(ch);
+			} else {
+				endStatement();
+				if(closers.size() <= 1)
+					endRegion(null);
+			}
+			break;
+		case '{':
+			if(parenDepth > 0 || exprDepth > 0 || isExpression()) {
+				exprDepth++;
+				append(ch);
+			} else {
+				openBrace();
+				if(closers.size() == 1)
+					endRegion(null);
+			}
+			break;
+		case '}':
+			if(exprDepth > 0) {
+				exprDepth--;
+				append(ch);
+			} else {
+				closeBrace();
+			}
+			break;
+		default:
+			if(Character.isWhitespace(ch))
+				space();
+			else
+				append(ch);
+		}
+	}
+
+	// Add code to the statement, collapsing whitespace to single spaces
+	private void append(char ch) {
+		text.append(ch);
+	}
+
+	private void space() {
+		if(text.length() > 0) {
+			char last = text.charAt(text.length() - 1);
+			if(last != ' ' && last != '(' && last != '[')
+				text.append(' ');
+		}
+	}
+
+	/**
+	 * Check if a '{' belongs to an expression, such as an array initializer,
+	 * anonymous class or lambda, rather than opening a block of statements
+	 * @return true if the brace is part of the statement being read
+	 */
+	private boolean isExpression() {
+		String s = text.toString().trim();
+		return assigned || s.startsWith("return") || s.startsWith("new ") ||
+			s.contains(" new ") || s.endsWith("->") || s.endsWith("]") ||
+			s.endsWith(",");
+	}
+
+	/**
+	 * Take the text of the statement read so far and start a new one
+	 * @return the statement without its annotations
+	 */
+	private String takeStatement() {
+		String s = text.toString().trim();
+		if(s.startsWith("@"))
+			s = ANNOTATIONS.matcher(s).replaceFirst("");
+		text.setLength(0);
+		parenDepth = 0;
+		assigned = false;
+		return s;
+	}
+
+	/**
+	 * End a statement, turning it into a data block, or a decision block
+	 * for the condition of a do loop
+	 */
+	private void endStatement() {
+		String s = takeStatement();
+		if(s.isEmpty())
+			return;
+
+		// The condition of a do loop goes back to its top, and breaks out
+		// of the loop go past the condition
+		if(closed != null && closed.kind == DO_BODY && s.startsWith("while")) {
+			Control loop = closed;
+			closed = null;
+			FlowchartBlock condition = emit(BlockType.DECISION, s);
+			branch(condition, loop.header);
+			for (int i = 0; i < loop.continues.size(); i++)
+				branch(loop.continues.get(i), condition);
+			loop.kind = LOOP_BODY;
+			closed = loop;
+			return;
+		}
+
+		FlowchartBlock block = emit(BlockType.DATA, s);
+		if(s.equals("break")) {
+			Control c = find(LOOP_BODY, DO_BODY, SWITCH_BODY);
+			if(c != null)
+				c.exits.add(block);
+		} else if(s.equals("continue")) {
+			Control c = find(LOOP_BODY, DO_BODY, -1);
+			if(c != null && c.kind == LOOP_BODY)
+				branch(block, c.header);
+			else if(c != null)
+				c.continues.add(block);
+		} else if(RETURN.matcher(s).matches()) {
+			Control c = find(BEGIN, -1, -1);
+			if(c != null)
+				c.exits.add(block);
+		}
+	}
+
+	/**
+	 * Open a block of statements. Classes and methods begin with a
+	 * terminator block, control statements with a data block of their
+	 * header.
+	 */
+	private void openBrace() {
+		String header = takeStatement();
+
+		// A bare block or initializer has no block of its own
+		if(header.isEmpty()) {
+			closers.push("");
+			controls.push(new Control(BLOCK, null));
+		} else if(CONTROL_HEADER.matcher(header).matches() &&
+				  !CLASS_HEADER.matcher(header).matches()) {
+			int kind = IF.matcher(header).matches() ? IF_BODY :
+				header.startsWith("else") ? ELSE_BODY :
+				LOOP.matcher(header).matches() ? LOOP_BODY :
+				header.equals("do") ? DO_BODY :
+				SWITCH.matcher(header).matches() ? SWITCH_BODY : BLOCK;
+			Control control = new Control(kind, null);
+
+			// An else takes over the exits of the if before it, and the end
+			// of the if's body jumps past the else too
+			if(header.startsWith("else") && closed != null &&
+					closed.kind == IF_BODY) {
+				control.exits.addAll(closed.exits);
+				control.exits.add(closed.end);
+				closed = null;
+			}
+			control.header = emit(kind == IF_BODY || kind == LOOP_BODY ?
+				BlockType.DECISION : BlockType.DATA, header + " {");
+			closers.push(CLOSE_BRACE);
+			controls.push(control);
+		} else {
+			closers.push("End " + header);
+			controls.push(new Control(BEGIN,
+				emit(BlockType.TERMINATOR, "Begin " + header)));
+		}
+	}
+
+	/**
+	 * Close the innermost open block with the block matching its opener
+	 */
+	private void closeBrace() {
+		// Flush a last statement without a semicolon, like enum constants
+		endStatement();
+
+		// Ignore unbalanced closing braces
+		if(closers.isEmpty()) {
+			endRegion(null);
+			return;
+		}
+
+		String closer = closers.pop();
+		Control control = controls.pop();
+		if(closer.equals(CLOSE_BRACE))
+			control.end = emit(BlockType.DATA, closer);
+		else if(!closer.isEmpty())
+			control.end = emit(BlockType.TERMINATOR, closer);
+		close(control);
+
+		// Closing a class ends a region, and so does closing a method
+		if(closers.isEmpty())
+			endRegion(closer);
+		else if(closers.size() == 1)
+			endRegion(null);
+	}
+
+	/**
+	 * Set the branches of a control statement whose closing block was just
+	 * parsed. An if goes past its body when its condition is false and a
+	 * loop goes back to its top at the end of its body, then past its
+	 * body once done. Returns jump to the end of their method.
+	 * @param control control statement closed
+	 */
+	private void close(Control control) {
+		switch(control.kind) {
+		case BEGIN:
+			for (int i = 0; i < control.exits.size(); i++)
+				branch(control.exits.get(i), control.end);
+			return;
+		case IF_BODY:
+			pending.add(control.header);
+			break;
+		case LOOP_BODY:
+			branch(control.end, control.header);
+			pending.add(control.header);
+			break;
+		case BLOCK:
+			return;
+		}
+		closed = control;
+	}
+
+	/**
+	 * Find the innermost open control statement of some kinds, without
+	 * looking outside the method
+	 * @param a kind to find
+	 * @param b another kind to find, or -1
+	 * @param c another kind to find, or -1
+	 * @return the control statement, or null if there is none
+	 */
+	private Control find(int a, int b, int c) {
+		for (Control control : controls) {
+			if(control.kind == a || control.kind == b || control.kind == c)
+				return control;
+			if(control.kind == BEGIN)
+				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Set the branch of a block, if both blocks were created
+	 * @param from block jumping
+	 * @param to block jumped to
+	 */
+	private static void branch(FlowchartBlock from, FlowchartBlock to) {
+		if(from != null && to != null)
+			from.setBranch(to);
+	}
+
+	/**
+	 * End the region being read at the current char
+	 * @param closer message of the block closed at the end of the region
+	 * if it was opened in another region, otherwise null
+	 */
+	private void endRegion(String closer) {
+		if(regions == null)
+			return;
+
+		// Closing braces depend on what they close as well as their text
+		long hash = regionHash;
+		if(closer != null) {
+			for (int i = 0; i < closer.length(); i++)
+				hash = (hash ^ closer.charAt(i)) * FNV_PRIME;
+		}
+		regions.add(new CodeRegion(regionStart, offset, hash, regionCount,
+			closer));
+		regionStart = offset;
+		regionCount = 0;
+		regionHash = FNV_OFFSET;
+	}
+
+	/**
+	 * Create a block, hand it to the sink and move down to the position of
+	 * the next block. Blocks waiting to branch to the next block branch
+	 * to it.
+	 * @param type type of the block
+	 * @param msg message of the block
+	 * @return the block, or null if blocks aren't created
+	 */
+	private FlowchartBlock emit(BlockType type, String msg) {
+		FlowchartBlock block = null;
+		if(createBlocks) {
+			if(pre == null && store != null) {
+				block = store.getBlock(store.add(type, x, y, msg));
+				block.setCanv(canv);
+			} else if(type == BlockType.TERMINATOR)
+				block = new TerminatorBlock(x, y, msg, pre, canv);
+			else if(type == BlockType.DECISION)
+				block = new DecisionBlock(x, y, msg, pre, canv);
+			else
+				block = new DataBlock(x, y, msg, pre, canv);
+			for (int i = 0; i < pending.size(); i++)
+				branch(pending.get(i), block);
+			for (int i = 0; closed != null && i < closed.exits.size(); i++)
+				branch(closed.exits.get(i), block);
+			sink.addBlock(block);
+			pre = block;
+		}
+		pending.clear();
+		closed = null;
+		count++;
+		regionCount++;
+		y += FlowchartBlock.getHeight() + FlowchartBlock.getBuffer();
+		return block;
+	}
+
+	/**
+	 * Control is an open brace and the blocks jumping out of it
+	 */
+	private static class Control {
+		private int kind; // kind of brace
+		private FlowchartBlock header; // block opening the brace, or null
+		private FlowchartBlock end; // block closing the brace, or null
+
+		// Blocks jumping past the end, or to the end of a method
+		private ArrayList<FlowchartBlock> exits =
+			new ArrayList<FlowchartBlock>();
+
+		// Blocks jumping back to the condition of a loop
+		private ArrayList<FlowchartBlock> continues =
+			new ArrayList<FlowchartBlock>();
+
+		/**
+		 * Constructor for Control
+		 * @param kind kind of brace
+		 * @param header block opening the brace, or null
+		 */
+		private Control(int kind, FlowchartBlock header) {
+			this.kind = kind;
+			this.header = header;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * CodeRegion is a class level piece of source code found by CodeParser,
+ * such as a method, a field or the header or closing brace of a class.
+ * Regions can be parsed on their own, and the fingerprint of a region's
+ * text tells if it changed since it was last parsed.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+public class CodeRegion {
+	private final int start; // offset of the region's first char
+	private final int end; // offset after the region's last char
+	private final long hash; // fingerprint of the region's text
+	private final int count; // number of blocks parsed from the region
+	private final String closer; // message closing a block, or null
+
+	/**
+	 * Constructor for CodeRegion
+	 * @param start offset of the region's first char
+	 * @param end offset after the region's last char
+	 * @param hash fingerprint of the region's text
+	 * @param count number of blocks parsed from the region
+	 * @param closer message of the block the region's closing brace ends,
+	 * or null if it doesn't end a block begun in another region
+	 */
+	public CodeRegion(int start, int end, long hash, int count,
+			String closer) {
+		this.start = start;
+		this.end = end;
+		this.hash = hash;
+		this.count = count;
+		this.closer = closer;
+	}
+
+	/**
+	 * Getter for start
+	 * @return the offset of the region's first char
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Getter for end
+	 * @return the offset after the region's last char
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Getter for hash
+	 * @return the fingerprint of the region's text
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Getter for count
+	 * @return the number of blocks parsed from the region
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Getter for closer
+	 * @return the message of the block the region's closing brace ends, or
+	 * null
+	 */
+	public String getCloser() {
+		return closer;
+	}
+}
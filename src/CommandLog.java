@@ -0,0 +1,432 @@
+/**
+ * CommandLog records the changes made to a chart so they can be undone and
+ * redone. Each step is a run of entries packed into parallel arrays, one
+ * entry per block changed: how far it moved, its old and new message, or
+ * its old and new pre or next. Moves of the same block within a step are
+ * added together, so a whole drag is a single entry per dragged block.
+ * Undoing or redoing a step only touches the blocks it changed. Entries
+ * and steps are kept in rings, so forgetting the oldest step once there are
+ * too many moves nothing.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.util.*;
+
+public class CommandLog {
+	private static final int INITIAL_CAPACITY = 64; // entries before growing
+	private static final int DEFAULT_LIMIT = 10000; // steps kept by default
+
+	// Kinds of entries
+	private static final byte MOVE = 0; // a, b: distance moved in x and y
+	private static final byte MESSAGE = 1; // olds, news: old and new message
+	private static final byte PRE = 2; // a, b: old and new id of pre
+	private static final byte NEXT = 3; // a, b: old and new id of next
+
+	private BlockStore store; // store of the blocks changed
+	private int limit; // most steps kept
+
+	// Columns of entry data, a ring whose first entry is at head. Entry i
+	// is kept at slot(i), and the capacity is always a power of two.
+	private int head = 0; // slot of the oldest entry
+	private int size = 0; // number of entries
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+	private int[] ids = new int[INITIAL_CAPACITY];
+	private int[] as = new int[INITIAL_CAPACITY];
+	private int[] bs = new int[INITIAL_CAPACITY];
+	private String[] olds = new String[INITIAL_CAPACITY];
+	private String[] news = new String[INITIAL_CAPACITY];
+
+	// End of each step's entries, a ring whose first step is at firstStep.
+	// Ends count the entries dropped before them too, so dropping a step
+	// doesn't change the others. The number of steps and of steps not
+	// undone.
+	private int[] stepEnds = new int[INITIAL_CAPACITY];
+	private int firstStep = 0;
+	private int dropped = 0; // entries dropped with the oldest steps
+	private int steps = 0;
+	private int done = 0;
+
+	// Entries of the step being recorded, by block id for moves
+	private int stepStart = 0;
+	private HashMap<Integer, Integer> moves = new HashMap<Integer, Integer>();
+
+	/**
+	 * Constructor for CommandLog keeping the default number of steps
+	 */
+	public CommandLog() {
+		this(DEFAULT_LIMIT);
+	}
+
+	/**
+	 * Constructor for CommandLog
+	 * @param limit most steps kept, older steps are forgotten
+	 */
+	public CommandLog(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Record that a block moved in the step being recorded
+	 * @param block block that moved
+	 * @param deltaX distance moved in x-direction
+	 * @param deltaY distance moved in y-direction
+	 */
+	public void moved(FlowchartBlock block, double deltaX, double deltaY) {
+		if(!record(block))
+			return;
+
+		// Add up the moves of the same block
+		Integer i = moves.get(block.getId());
+		if(i == null) {
+			i = add(MOVE, block.getId());
+			moves.put(block.getId(), i);
+		}
+		as[slot(i)] += (int) deltaX;
+		bs[slot(i)] += (int) deltaY;
+	}
+
+	/**
+	 * Record a block's message before it is changed. The new message is
+	 * recorded when the step ends.
+	 * @param block block whose message is about to change
+	 */
+	public void changingMsg(FlowchartBlock block) {
+		if(!record(block))
+			return;
+		olds[slot(add(MESSAGE, block.getId()))] = block.getMsg();
+	}
+
+	/**
+	 * Record a block's pre and next before they are changed. The new links
+	 * are recorded when the step ends.
+	 * @param block block whose links are about to change, may be null
+	 */
+	public void changingLinks(FlowchartBlock block) {
+		if(block == null || !record(block))
+			return;
+		as[slot(add(PRE, block.getId()))] = store.getPre(block.getId());
+		as[slot(add(NEXT, block.getId()))] = store.getNext(block.getId());
+	}
+
+	/**
+	 * End the step being recorded, recording the new messages and links of
+	 * its blocks
+	 */
+	public void endStep() {
+		moves.clear();
+		if(size == stepStart)
+			return;
+
+		// Drop entries of blocks that didn't end up changing
+		int end = stepStart;
+		for (int i = stepStart; i < size; i++) {
+			int e = slot(i);
+			boolean changed;
+			switch(kinds[e]) {
+			case MESSAGE:
+				news[e] = store.getMsg(ids[e]);
+				changed = !Objects.equals(olds[e], news[e]);
+				break;
+			case PRE:
+				bs[e] = store.getPre(ids[e]);
+				changed = as[e] != bs[e];
+				break;
+			case NEXT:
+				bs[e] = store.getNext(ids[e]);
+				changed = as[e] != bs[e];
+				break;
+			default:
+				changed = as[e] != 0 || bs[e] != 0;
+			}
+			if(changed)
+				copy(i, end++);
+		}
+		clear(end, size);
+		size = end;
+		if(size == stepStart)
+			return;
+
+		if(steps == stepEnds.length)
+			growSteps();
+		stepEnds[stepSlot(steps++)] = size + dropped;
+		done = steps;
+		stepStart = size;
+
+		// Forget the oldest step once there are too many
+		if(steps > limit)
+			dropOldest();
+	}
+
+	/**
+	 * Undo the last step not undone yet
+	 * @return true if a step was undone
+	 */
+	public boolean undo() {
+		endStep();
+		if(done == 0)
+			return false;
+		done--;
+		int start = getStepEnd(done - 1);
+		for (int i = getStepEnd(done) - 1; i >= start; i--)
+			apply(i, true);
+		notify(start, getStepEnd(done));
+		return true;
+	}
+
+	/**
+	 * Redo the last step undone
+	 * @return true if a step was redone
+	 */
+	public boolean redo() {
+		endStep();
+		if(done == steps)
+			return false;
+		int start = getStepEnd(done - 1);
+		for (int i = start; i < getStepEnd(done); i++)
+			apply(i, false);
+		notify(start, getStepEnd(done));
+		done++;
+		return true;
+	}
+
+	/**
+	 * Check if there is a step to undo
+	 * @return true if undo would change the chart
+	 */
+	public boolean canUndo() {
+		return done > 0;
+	}
+
+	/**
+	 * Check if there is a step to redo
+	 * @return true if redo would change the chart
+	 */
+	public boolean canRedo() {
+		return done < steps;
+	}
+
+	/**
+	 * Forget all steps, such as after the chart was replaced
+	 */
+	public void clear() {
+		clear(0, size);
+		head = 0;
+		size = 0;
+		firstStep = 0;
+		dropped = 0;
+		steps = 0;
+		done = 0;
+		stepStart = 0;
+		moves.clear();
+		store = null;
+	}
+
+	/**
+	 * Getter for the number of entries
+	 * @return the number of blocks changed by all recorded steps
+	 */
+	public int size() {
+		return getStepEnd(done - 1);
+	}
+
+	/**
+	 * Get ready to record a change to a block, forgetting the steps that
+	 * were undone since they can't be redone after a new change
+	 * @param block block being changed
+	 * @return false if the change can't be recorded
+	 */
+	private boolean record(FlowchartBlock block) {
+		if(store == null)
+			store = block.getStore();
+		else if(block.getStore() != store)
+			return false;
+
+		if(done < steps) {
+			int end = getStepEnd(done - 1);
+			clear(end, size);
+			size = stepStart = end;
+			steps = done;
+		}
+		return true;
+	}
+
+	/**
+	 * Add an entry to the step being recorded
+	 * @param kind kind of entry
+	 * @param id id of the block changed
+	 * @return the index of the entry
+	 */
+	private int add(byte kind, int id) {
+		if(size == ids.length)
+			grow();
+		int e = slot(size);
+		kinds[e] = kind;
+		ids[e] = id;
+		as[e] = 0;
+		bs[e] = 0;
+		return size++;
+	}
+
+	/**
+	 * Undo or redo one entry
+	 * @param i index of the entry
+	 * @param undo true to undo, false to redo
+	 */
+	private void apply(int i, boolean undo) {
+		// Blocks removed since can't be changed back
+		int e = slot(i);
+		int id = ids[e];
+		if(store.isRemoved(id))
+			return;
+		switch(kinds[e]) {
+		case MOVE:
+			store.getBlock(id).move(undo ? -as[e] : as[e],
+				undo ? -bs[e] : bs[e]);
+			break;
+		case MESSAGE:
+			store.setMsg(id, undo ? olds[e] : news[e]);
+			break;
+		case PRE:
+			store.setPre(id, undo ? as[e] : bs[e]);
+			break;
+		case NEXT:
+			store.setNext(id, undo ? as[e] : bs[e]);
+			break;
+		}
+	}
+
+	/**
+	 * Tell the canvas of the blocks of a step that their messages or links
+	 * changed. Blocks were moved back by the step's own moves, so nothing
+	 * is laid out again.
+	 * @param start index of the step's first entry
+	 * @param end index after the step's last entry
+	 */
+	private void notify(int start, int end) {
+		for (int i = start; i < end; i++) {
+			int e = slot(i);
+			FlowchartBlock block = store.getBlock(ids[e]);
+			if(block == null || block.getCanv() == null)
+				continue;
+			if(kinds[e] == MESSAGE)
+				block.getCanv().messageEdited(block);
+			else if(kinds[e] == PRE || (kinds[e] == NEXT &&
+					(i == start || ids[slot(i - 1)] != ids[e])))
+				block.getCanv().linksRestored(block);
+		}
+	}
+
+	/**
+	 * Forget the oldest step by moving the start of both rings past it
+	 */
+	private void dropOldest() {
+		int n = getStepEnd(0);
+		clear(0, n);
+		head = slot(n);
+		size -= n;
+		stepStart -= n;
+		dropped += n;
+		firstStep = stepSlot(1);
+		steps--;
+		done--;
+	}
+
+	/**
+	 * Get the slot of an entry in the columns
+	 * @param i index of the entry, the oldest being 0
+	 * @return the index of the entry's data in the columns
+	 */
+	private int slot(int i) {
+		return (head + i) & (ids.length - 1);
+	}
+
+	/**
+	 * Get the slot of a step's end in stepEnds
+	 * @param s index of the step, the oldest being 0
+	 * @return the index of the step's end
+	 */
+	private int stepSlot(int s) {
+		return (firstStep + s) & (stepEnds.length - 1);
+	}
+
+	/**
+	 * Get the end of a step's entries
+	 * @param s index of the step, or -1 for the start of the first step
+	 * @return the index after the step's last entry
+	 */
+	private int getStepEnd(int s) {
+		// Ends may wrap around after many dropped entries, but the
+		// difference doesn't
+		return s < 0 ? 0 : stepEnds[stepSlot(s)] - dropped;
+	}
+
+	/**
+	 * Copy an entry over another
+	 * @param from index of the entry to copy
+	 * @param to index to copy it to
+	 */
+	private void copy(int from, int to) {
+		from = slot(from);
+		to = slot(to);
+		kinds[to] = kinds[from];
+		ids[to] = ids[from];
+		as[to] = as[from];
+		bs[to] = bs[from];
+		olds[to] = olds[from];
+		news[to] = news[from];
+	}
+
+	/**
+	 * Let go of the messages of a range of entries
+	 * @param from first entry
+	 * @param to end of the range, exclusive
+	 */
+	private void clear(int from, int to) {
+		for (int i = from; i < to; i++) {
+			olds[slot(i)] = null;
+			news[slot(i)] = null;
+		}
+	}
+
+	/**
+	 * Double the capacity of all columns, unrolling the ring so the oldest
+	 * entry comes first
+	 */
+	private void grow() {
+		int n = ids.length;
+		kinds = unroll(kinds, new byte[2 * n], n);
+		ids = unroll(ids, new int[2 * n], n);
+		as = unroll(as, new int[2 * n], n);
+		bs = unroll(bs, new int[2 * n], n);
+		olds = unroll(olds, new String[2 * n], n);
+		news = unroll(news, new String[2 * n], n);
+		head = 0;
+	}
+
+	/**
+	 * Copy a full column into a larger one, the oldest entry first
+	 * @param from column of the ring
+	 * @param to larger column
+	 * @param n capacity of from
+	 * @return to
+	 */
+	private <T> T unroll(T from, T to, int n) {
+		System.arraycopy(from, head, to, 0, n - head);
+		System.arraycopy(from, 0, to, n - head, head);
+		return to;
+	}
+
+	/**
+	 * Double the capacity of stepEnds, unrolling its ring so the oldest
+	 * step comes first
+	 */
+	private void growSteps() {
+		int n = stepEnds.length;
+		int[] ends = new int[n * 2];
+		System.arraycopy(stepEnds, firstStep, ends, 0, n - firstStep);
+		System.arraycopy(stepEnds, 0, ends, n - firstStep, firstStep);
+		stepEnds = ends;
+		firstStep = 0;
+	}
+}
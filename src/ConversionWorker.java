@@ -0,0 +1,183 @@
+/**
+ * ConversionWorker runs a conversion, such as parsing a Java file onto the
+ * canvas or opening a chart, on a pool of worker threads so the canvas
+ * keeps painting while it runs. The blocks it creates reach the canvas in
+ * batches through addBlock, its progress is shown on the editor panel's
+ * prompt, and it can be cancelled. Only one conversion runs at a time.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import javax.swing.*;
+
+public abstract class ConversionWorker implements Runnable {
+	private static final int PROGRESS_REFRESH = 100; // ms between updates
+
+	// Threads running conversions, which don't keep the program open
+	private static final ExecutorService POOL =
+		Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "Conversion");
+			t.setDaemon(true);
+			return t;
+		});
+
+	// Conversion running, only touched on the event dispatch thread
+	private static ConversionWorker running;
+
+	private final EditorPanel panel; // panel whose prompt shows progress
+	private final String title; // what is converted, such as the file name
+	private Timer progressTimer; // timer showing the progress
+
+	// Thread running the conversion, and whether it was cancelled
+	private Thread thread;
+	private boolean cancelled = false;
+
+	/**
+	 * Constructor for ConversionWorker
+	 * @param panel panel whose prompt shows the progress
+	 * @param title what is converted, such as the file name
+	 */
+	protected ConversionWorker(EditorPanel panel, String title) {
+		this.panel = panel;
+		this.title = title;
+	}
+
+	/**
+	 * Convert on a worker thread. Blocks are handed to the canvas with
+	 * addBlock like on any other thread. Conversions should stop with an
+	 * InterruptedIOException once the thread is interrupted.
+	 * @return the message shown on the prompt when done
+	 * @throws Exception if the conversion failed
+	 */
+	protected abstract String convert() throws Exception;
+
+	/**
+	 * Get how far the conversion is, called on the event dispatch thread
+	 * while it runs
+	 * @return the share done, from 0 to 1, or -1 if it isn't known
+	 */
+	protected double getProgress() {
+		return -1;
+	}
+
+	/**
+	 * Called on the event dispatch thread after the conversion finished
+	 */
+	protected void succeeded() {
+	}
+
+	/**
+	 * Called on the event dispatch thread after the conversion was
+	 * cancelled or failed, to throw away what it left half done
+	 */
+	protected void stopped() {
+	}
+
+	/**
+	 * Start the conversion. Must be called on the event dispatch thread.
+	 * @return false if another conversion is still running
+	 */
+	public boolean start() {
+		if(running != null)
+			return false;
+		running = this;
+		showProgress();
+		progressTimer = new Timer(PROGRESS_REFRESH, e -> showProgress());
+		progressTimer.start();
+		POOL.execute(this);
+		return true;
+	}
+
+	/**
+	 * Cancel the running conversion, if there is one. Must be called on
+	 * the event dispatch thread.
+	 * @return false if no conversion was running
+	 */
+	public static boolean cancelRunning() {
+		if(running == null)
+			return false;
+		running.cancel();
+		return true;
+	}
+
+	/**
+	 * Check if a conversion is running. Must be called on the event
+	 * dispatch thread.
+	 * @return true if a conversion is running
+	 */
+	public static boolean isRunning() {
+		return running != null;
+	}
+
+	/**
+	 * Cancel the conversion by interrupting its thread
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		if(thread != null)
+			thread.interrupt();
+	}
+
+	/**
+	 * Run the conversion on a worker thread, then finish it on the event
+	 * dispatch thread
+	 */
+	@Override
+	public void run() {
+		String msg = null;
+		Exception error = null;
+		synchronized(this) {
+			if(!cancelled)
+				thread = Thread.currentThread();
+		}
+		try {
+			if(thread != null)
+				msg = convert();
+		} catch (Exception e) {
+			error = e;
+		} finally {
+			// Never leave an interrupt behind on the pool's thread
+			synchronized(this) {
+				thread = null;
+				Thread.interrupted();
+			}
+		}
+		String result = msg;
+		Exception failure = error;
+		SwingUtilities.invokeLater(() -> finish(result, failure));
+	}
+
+	/**
+	 * Show the result of the conversion on the prompt
+	 * @param msg message of a finished conversion
+	 * @param error exception the conversion failed with, or null
+	 */
+	private void finish(String msg, Exception error) {
+		progressTimer.stop();
+		running = null;
+		if(error == null && msg != null) {
+			succeeded();
+			panel.getPrompt().setText(msg);
+		} else if(error == null || error instanceof InterruptedIOException ||
+				error instanceof InterruptedException) {
+			stopped();
+			panel.getPrompt().setText("Cancelled converting " + title);
+		} else {
+			stopped();
+			panel.getPrompt().setText("Could not convert " + title + ": " +
+				error.getMessage());
+		}
+	}
+
+	/**
+	 * Show the progress of the conversion on the prompt
+	 */
+	private void showProgress() {
+		double progress = getProgress();
+		panel.getPrompt().setText("Converting " + title +
+			(progress >= 0 ? " " + (int) (progress * 100) + "%" : "...") +
+			" (Esc to cancel)");
+	}
+}
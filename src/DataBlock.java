@@ -13,15 +13,22 @@ public class DataBlock extends FlowchartBlock
 							            MouseMotionListener*/ {
 	private static final int buffer = 10; // Width of the slanted side
 	private static final int sides = 4; // Number of sides
-	private static final int msgBuffer = 15; /* Space between shape outline
-    										    and text */
+	
+	/**
+	 * Create the template of data blocks, see BlockType
+	 * @return the parallelogram of every data block, with its origin at
+	 * (0, 0)
+	 */
+	static Polygon createTemplate() {
+		return new Polygon(
+			new int[] {buffer, (int) getWidth(), (int) getWidth() - buffer, 0},
+			new int[] {0, 0, (int) getHeight(), (int) getHeight()}, sides);
+	}
 
 	//private Point prevPoint;
 	//private Point currPoint;
 	//boolean isDragged;
     
-    private BlockCanvas canv; // canvas to draw on
-    
     /**
      * Constructor for DataBlock initializing data fields
      * @param x x coordinate of block
@@ -31,36 +38,18 @@ public class DataBlock extends FlowchartBlock
      */
     public DataBlock(double x, double y, String msg, 
     		FlowchartBlock pre, BlockCanvas c) {
-		// Call super ctor passing in block type
-		super("Data");
-		
-		// Set up x and y point coordinates
-		int [] xPoints = {(int)(x + buffer), (int)(x + buffer + 
-			(getWidth() - buffer)), 
-			(int)(x + (getWidth() - buffer)), (int) x};
-		int [] yPoints = {(int) y, (int) y, (int)(y + getHeight()), 
-			(int)(y + getHeight())};
-		
-		// Draw the polygon and initialize the rest of the data fields
-		this.setBlock(new Polygon(xPoints, yPoints, sides));
-		this.setMsg(msg);
-		this.setxStr((int) x + msgBuffer);
-		this.setyStr((int) y + msgBuffer);
-		this.setPre(pre);
-		if(pre != null)
-			this.getPre().setNext(this);
-		this.setOrigin(new Point((int) x, (int) y));
-		this.setTop(new Point((int) (x + getWidth()/2), 
-			(int) y));
-		this.setBottom(new Point((int) (x + getWidth()/2), 
-			(int) (y + getHeight())));
-		this.setLeft(new Point((int) (x + buffer/2), 
-			(int) (y + getHeight()/2)));
-		this.setRight(new Point(
-			(int) (x + (getWidth() - buffer) - buffer/2), 
-			(int) (y + getHeight()/2)));
-		this.setCanv(c);
+		// Call super ctor passing in block type and data fields
+		super(BlockType.DATA, x, y, msg, pre, c);
 	}
+    
+    /**
+     * Constructor for a DataBlock already in a store
+     * @param store store holding the block's data
+     * @param id id of the block in the store
+     */
+    DataBlock(BlockStore store, int id) {
+    	super(store, id);
+    }
 
 	/*
 	@Override
@@ -70,35 +59,24 @@ public class DataBlock extends FlowchartBlock
 	}*/
 	
 	/**
-	 * Move the block on canvas
-	 * @param deltaX distance to move in x-direction
-	 * @param deltaY distance to move in y-direction
+	 * Getter for left
+	 * @return the left Point, halfway along the slanted side
 	 */
 	@Override
-	public void move(double deltaX, double deltaY) {
-		// Call Polygon's translate to move the shape
-		((Polygon) getBlock()).translate((int) deltaX, (int) deltaY);
-		
-		// Set the origin, top, bottom, left, right to their new locations
-		this.getOrigin().setLocation(this.getOrigin().getX() + deltaX,
-			this.getOrigin().getY() + deltaY);
-		this.getTop().setLocation(this.getTop().getX() + deltaX,
-			this.getTop().getY() + deltaY);
-		this.getBottom().setLocation(this.getBottom().getX() + deltaX,
-			this.getBottom().getY() + deltaY);
-		this.getLeft().setLocation(this.getLeft().getX() + deltaX,
-			this.getLeft().getY() + deltaY);
-		this.getRight().setLocation(this.getRight().getX() + deltaX,
-			this.getRight().getY() + deltaY);
+	public Point getLeft() {
+		return new Point((int) (getX() + buffer/2), 
+			(int) (getY() + getHeight()/2));
 	}
 	
 	/**
-	 * Check if the shape contains a point
-	 * @param p point to check for insideness
+	 * Getter for right
+	 * @return the right Point, halfway along the slanted side
 	 */
 	@Override
-	public boolean containsPoint(Point p) {
-		return this.getBlock().contains(p.getX(), p.getY());
+	public Point getRight() {
+		return new Point(
+			(int) (getX() + (getWidth() - buffer) - buffer/2), 
+			(int) (getY() + getHeight()/2));
 	}
 	
 	/*
@@ -158,21 +136,4 @@ public class DataBlock extends FlowchartBlock
 	@Override
 	public void mouseExited(MouseEvent e) {}
 	*/
-
-	
-	/**
-	 * Getter for canv
-	 * @return the canvas of the block
-	 */
-	public BlockCanvas getCanv() {
-		return canv;
-	}
-
-	/**
-	 * Setter for canv
-	 * @param canv new canvas for block
-	 */
-	public void setCanv(BlockCanvas canv) {
-		this.canv = canv;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+/**
+ * DecisionBlock is a FlowchartBlock where the flow of control splits, such
+ * as the header of an if statement or a loop. Control goes on to the next
+ * block or jumps to the block's branch.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.*;
+
+public class DecisionBlock extends FlowchartBlock {
+	private static final int sides = 4; // Number of sides
+
+	/**
+	 * Create the template of decision blocks, see BlockType
+	 * @return the diamond of every decision block, with its origin at
+	 * (0, 0)
+	 */
+	static Polygon createTemplate() {
+		return new Polygon(
+			new int[] {(int) getWidth()/2, (int) getWidth(),
+				(int) getWidth()/2, 0},
+			new int[] {0, (int) getHeight()/2, (int) getHeight(),
+				(int) getHeight()/2}, sides);
+	}
+
+	/**
+	 * Constructor for DecisionBlock initializing data fields
+	 * @param x x coordinate of block
+	 * @param y y coordinate of block
+	 * @param msg message of block
+	 * @param pre previous block connected to this one, may be null
+	 * @param c canvas to draw block on
+	 */
+	public DecisionBlock(double x, double y, String msg,
+			FlowchartBlock pre, BlockCanvas c) {
+		super(BlockType.DECISION, x, y, msg, pre, c);
+	}
+
+	/**
+	 * Constructor for a DecisionBlock already in a store
+	 * @param store store holding the block's data
+	 * @param id id of the block in the store
+	 */
+	DecisionBlock(BlockStore store, int id) {
+		super(store, id);
+	}
+
+	/**
+	 * Getter for xStr
+	 * @return the x coordinate of the message, clear of the diamond's
+	 * left corner
+	 */
+	@Override
+	public int getxStr() {
+		return (int) (getX() + getWidth()/8);
+	}
+
+	/**
+	 * Getter for yStr
+	 * @return the y coordinate of the message, on the middle of the
+	 * diamond where it is widest
+	 */
+	@Override
+	public int getyStr() {
+		return (int) (getY() + getHeight()/2);
+	}
+}
@@ -0,0 +1,351 @@
+/**
+ * EdgeRouter routes the lines connecting blocks to their previous blocks.
+ * A line leaves the bottom of the previous block and enters the top of the
+ * block, made only of horizontal and vertical segments that go around the
+ * other blocks in the way. Routes are kept as paths indexed by block id,
+ * like the columns of BlockStore, and are only routed again once one of
+ * their blocks moved or was relinked, or a block moved into their way.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
+import java.util.*;
+
+public class EdgeRouter {
+	private static final int INITIAL_CAPACITY = 64; // routes before growing
+	private static final int MAX_DETOURS = 8; // columns tried around blocks
+
+	private final BlockIndex index; // index of the blocks to route around
+	private BlockStore store; // store of the blocks whose routes are kept
+
+	// Corners of each block's route as x and y pairs, the path drawn
+	// through them, and the pre block's id and the two end points the
+	// route was made for, five ints a block
+	private int[][] corners = new int[INITIAL_CAPACITY][];
+	private Path2D.Float[] paths = new Path2D.Float[INITIAL_CAPACITY];
+	private int[] ends = new int[INITIAL_CAPACITY * 5];
+
+	// Routes a block moved into the way of, to be routed again
+	private boolean[] blocked = new boolean[INITIAL_CAPACITY];
+
+	// Area of the routes routed again since the last call to takeRerouted,
+	// both where they were and where they are now
+	private Rectangle rerouted;
+
+	// Blocks found in the index, reused between lookups
+	private ArrayList<FlowchartBlock> found = new ArrayList<FlowchartBlock>();
+
+	/**
+	 * Constructor for EdgeRouter
+	 * @param index index of the blocks to route around, which has to be
+	 * given this router so it indexes blocks together with their routes
+	 */
+	public EdgeRouter(BlockIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Get the route of the line from a block's pre to the block, routing
+	 * it if it isn't cached or its blocks moved since
+	 * @param block block the line ends at
+	 * @return the route, or null if the block has no pre
+	 */
+	public Path2D getRoute(FlowchartBlock block) {
+		FlowchartBlock pre = block.getPre();
+		if(pre == null)
+			return null;
+		if(block.getStore() != store) {
+			clear();
+			store = block.getStore();
+		}
+		int id = block.getId();
+		if(id >= paths.length)
+			grow(id + 1);
+
+		// Reuse the route if it was made between the same two points
+		java.awt.Point from = pre.getBottom();
+		java.awt.Point to = block.getTop();
+		int e = 5 * id;
+		if(paths[id] != null && !blocked[id] && ends[e] == pre.getId() &&
+				ends[e + 1] == from.x && ends[e + 2] == from.y &&
+				ends[e + 3] == to.x && ends[e + 4] == to.y)
+			return paths[id];
+
+		// Keep both the old and new area of the route to repaint them
+		Rectangle old = getBounds(block);
+		if(old != null)
+			addRerouted(old);
+		corners[id] = route(pre, block, from.x, from.y, to.x, to.y);
+		paths[id] = toPath(corners[id]);
+		ends[e] = pre.getId();
+		ends[e + 1] = from.x;
+		ends[e + 2] = from.y;
+		ends[e + 3] = to.x;
+		ends[e + 4] = to.y;
+		blocked[id] = false;
+		addRerouted(getBounds(block));
+
+		// The block is indexed together with its route
+		index.update(block);
+		return paths[id];
+	}
+
+	/**
+	 * Get the area of the last route made for a block, which may be out of
+	 * date until the route is asked for again
+	 * @param block block the route ends at
+	 * @return the bounds of the route, or null if it wasn't routed
+	 */
+	public Rectangle getBounds(FlowchartBlock block) {
+		int id = block.getId();
+		if(block.getStore() != store || id >= corners.length ||
+				corners[id] == null)
+			return null;
+		int[] c = corners[id];
+		Rectangle bounds = new Rectangle(c[0], c[1], 0, 0);
+		for (int i = 2; i < c.length; i += 2)
+			bounds.add(c[i], c[i + 1]);
+		return bounds;
+	}
+
+	/**
+	 * Route again the lines passing through an area, such as where a block
+	 * was added or moved to, the next time they are asked for
+	 * @param area area of the chart that changed
+	 */
+	public void invalidate(Rectangle area) {
+		found.clear();
+		index.blocksIn(area, found);
+		for (int i = 0; i < found.size(); i++) {
+			FlowchartBlock block = found.get(i);
+			int id = block.getId();
+			if(block.getStore() == store && id < corners.length &&
+					corners[id] != null && crosses(corners[id], area))
+				blocked[id] = true;
+		}
+	}
+
+	/**
+	 * Get the area of the routes routed again since the last call, so it
+	 * can be repainted if it wasn't all painted already
+	 * @return the area covered before and after, or null if none were
+	 */
+	public Rectangle takeRerouted() {
+		Rectangle area = rerouted;
+		rerouted = null;
+		return area;
+	}
+
+	/**
+	 * Forget the route of a block, such as after it was removed
+	 * @param block block the route ends at
+	 */
+	public void remove(FlowchartBlock block) {
+		if(block.getStore() != store || block.getId() >= paths.length)
+			return;
+		corners[block.getId()] = null;
+		paths[block.getId()] = null;
+	}
+
+	/**
+	 * Forget all routes
+	 */
+	public void clear() {
+		Arrays.fill(corners, null);
+		Arrays.fill(paths, null);
+		Arrays.fill(blocked, false);
+		store = null;
+		rerouted = null;
+	}
+
+	/**
+	 * Route a line from the bottom of a block to the top of another. A
+	 * straight line is used if nothing is in its way, then a line bending
+	 * once between the blocks, then lines going down a free column between
+	 * the other blocks. If every route is blocked, the first one is used.
+	 * @param pre block the line starts at
+	 * @param next block the line ends at
+	 * @param px x coordinate of the start
+	 * @param py y coordinate of the start
+	 * @param nx x coordinate of the end
+	 * @param ny y coordinate of the end
+	 * @return the corners of the route as x and y pairs
+	 */
+	private int[] route(FlowchartBlock pre, FlowchartBlock next, int px,
+			int py, int nx, int ny) {
+		int gap = FlowchartBlock.getBuffer() / 2; // distance kept to blocks
+		ArrayList<Integer> columns = new ArrayList<Integer>();
+		int[] first = null;
+
+		// Straight down, or bending once halfway between the blocks, just
+		// below the pre block or just above the next block
+		if(ny > py) {
+			int[] bends = px == nx ? new int[] {py} :
+				new int[] {(py + ny) / 2, py + gap, ny - gap};
+			for (int i = 0; i < bends.length; i++) {
+				int bend = Math.min(Math.max(bends[i], py), ny);
+				int[] c = {px, py, px, bend, nx, bend, nx, ny};
+				FlowchartBlock blocker = findBlocker(c, pre, next);
+				if(blocker == null)
+					return c;
+				if(first == null)
+					first = c;
+				addSides(blocker, gap, columns);
+			}
+		}
+
+		// Going down a column between the blocks, starting halfway between
+		// the ends and moving to the sides of the blocks in the way
+		int y1 = py + gap;
+		int y2 = ny - gap;
+		columns.add(0, (px + nx) / 2);
+		HashSet<Integer> tried = new HashSet<Integer>();
+		for (int n = 0; n < MAX_DETOURS && !columns.isEmpty(); n++) {
+			int x = cheapest(columns, px, nx);
+			if(!tried.add(x))
+				continue;
+			int[] c = {px, py, px, y1, x, y1, x, y2, nx, y2, nx, ny};
+			FlowchartBlock blocker = findBlocker(c, pre, next);
+			if(blocker == null)
+				return c;
+			if(first == null)
+				first = c;
+			addSides(blocker, gap, columns);
+		}
+		return first;
+	}
+
+	/**
+	 * Find a block in the way of a route
+	 * @param c corners of the route as x and y pairs
+	 * @param pre block the route starts at, ignored on the first segment
+	 * @param next block the route ends at, ignored on the last segment
+	 * @return a block a segment passes through, or null if there is none
+	 */
+	private FlowchartBlock findBlocker(int[] c, FlowchartBlock pre,
+			FlowchartBlock next) {
+		for (int i = 0; i + 3 < c.length; i += 2) {
+			Rectangle segment = segment(c, i);
+			found.clear();
+			index.blocksIn(segment, found);
+			for (int j = 0; j < found.size(); j++) {
+				FlowchartBlock block = found.get(j);
+				if(block == pre && i == 0 ||
+						block == next && i + 4 == c.length)
+					continue;
+				if(getShapeBounds(block).intersects(segment))
+					return block;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check if a route passes through an area
+	 * @param c corners of the route as x and y pairs
+	 * @param area area to check
+	 * @return true if a segment of the route intersects the area
+	 */
+	private static boolean crosses(int[] c, Rectangle area) {
+		for (int i = 0; i + 3 < c.length; i += 2) {
+			if(segment(c, i).intersects(area))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the area a segment of a route covers, one pixel wide
+	 * @param c corners of the route as x and y pairs
+	 * @param i index of the segment's first x coordinate
+	 * @return the bounds of the segment
+	 */
+	private static Rectangle segment(int[] c, int i) {
+		return new Rectangle(Math.min(c[i], c[i + 2]),
+			Math.min(c[i + 1], c[i + 3]), Math.abs(c[i + 2] - c[i]) + 1,
+			Math.abs(c[i + 3] - c[i + 1]) + 1);
+	}
+
+	/**
+	 * Get the area of a block's shape, without its line to pre
+	 * @param block block to get the area of
+	 * @return the bounds of the block
+	 */
+	private static Rectangle getShapeBounds(FlowchartBlock block) {
+		return new Rectangle((int) block.getX(), (int) block.getY(),
+			(int) FlowchartBlock.getWidth(), (int) FlowchartBlock.getHeight());
+	}
+
+	/**
+	 * Add the columns just left and right of a block to go around it
+	 * @param block block in the way
+	 * @param gap distance to keep to the block
+	 * @param columns x coordinates of the columns to try
+	 */
+	private static void addSides(FlowchartBlock block, int gap,
+			List<Integer> columns) {
+		columns.add((int) block.getX() - gap);
+		columns.add((int) (block.getX() + FlowchartBlock.getWidth()) + gap);
+	}
+
+	/**
+	 * Take the column making the shortest detour out of a list
+	 * @param columns x coordinates of the columns to try
+	 * @param px x coordinate of the start
+	 * @param nx x coordinate of the end
+	 * @return the x coordinate of the column taken
+	 */
+	private static int cheapest(List<Integer> columns, int px, int nx) {
+		int best = 0;
+		for (int i = 1; i < columns.size(); i++) {
+			int x = columns.get(i);
+			int b = columns.get(best);
+			if(Math.abs(x - px) + Math.abs(x - nx) <
+					Math.abs(b - px) + Math.abs(b - nx))
+				best = i;
+		}
+		return columns.remove(best);
+	}
+
+	/**
+	 * Make the path drawn through the corners of a route, leaving out
+	 * segments of no length
+	 * @param c corners of the route as x and y pairs
+	 * @return the path
+	 */
+	private static Path2D.Float toPath(int[] c) {
+		Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO,
+			c.length / 2);
+		path.moveTo(c[0], c[1]);
+		for (int i = 2; i < c.length; i += 2) {
+			if(c[i] != c[i - 2] || c[i + 1] != c[i - 1])
+				path.lineTo(c[i], c[i + 1]);
+		}
+		return path;
+	}
+
+	/**
+	 * Add an area to the area routed again
+	 * @param area area of a route
+	 */
+	private void addRerouted(Rectangle area) {
+		if(rerouted == null)
+			rerouted = new Rectangle(area);
+		else
+			rerouted.add(area);
+	}
+
+	/**
+	 * Grow the arrays to hold a block id
+	 * @param capacity least number of routes to hold
+	 */
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, paths.length * 2);
+		corners = Arrays.copyOf(corners, capacity);
+		paths = Arrays.copyOf(paths, capacity);
+		ends = Arrays.copyOf(ends, capacity * 5);
+		blocked = Arrays.copyOf(blocked, capacity);
+	}
+}
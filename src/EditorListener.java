@@ -0,0 +1,26 @@
+/**
+ * EditorListener is notified by an EditorPanel whenever it changes the
+ * blocks it is editing
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+public interface EditorListener {
+	/**
+	 * Called after the message of a block has been edited
+	 * @param block block whose message changed
+	 */
+	public void messageEdited(FlowchartBlock block);
+
+	/**
+	 * Called after the editor is done with a block and moved on
+	 * @param block block that is no longer being edited
+	 */
+	public void editingDone(FlowchartBlock block);
+
+	/**
+	 * Called after the pre or next block of a block has been changed
+	 * @param block block whose links changed
+	 */
+	public void blockRelinked(FlowchartBlock block);
+}
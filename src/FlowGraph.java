@@ -0,0 +1,265 @@
+/**
+ * FlowGraph is the flow of control through the blocks of a store, kept in
+ * compact adjacency arrays instead of block objects. Control goes from a
+ * block to its next block, unless the block has a branch: a decision block
+ * goes on to next or jumps to its branch, and any other block only jumps to
+ * its branch, like the end of a loop going back to its top.
+ *
+ * The successors of block id are targets[offsets[id]] up to but not
+ * including targets[offsets[id + 1]], and its predecessors are kept the
+ * same way, so following the edges of a block reads one short run of ints.
+ * A graph is a snapshot of the store when it was built and doesn't change
+ * with it. Walks through the graph reuse their arrays from one walk to the
+ * next, so a walk over a chart of any size allocates nothing.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.util.Arrays;
+
+public class FlowGraph {
+	private static final int NONE = -1; // id of a missing block
+
+	private final int size; // number of block ids, including removed ones
+
+	// Successors and predecessors of each block, offsets by block id
+	private final int[] offsets;
+	private final int[] targets;
+	private final int[] predOffsets;
+	private final int[] preds;
+
+	/**
+	 * Constructor for FlowGraph
+	 * @param offsets start of each block's successors, and the end
+	 * @param targets successors of all blocks in order of block id
+	 */
+	private FlowGraph(int[] offsets, int[] targets) {
+		this.size = offsets.length - 1;
+		this.offsets = offsets;
+		this.targets = targets;
+
+		// Count each block's predecessors, then place them after the
+		// predecessors of the blocks before it
+		predOffsets = new int[size + 1];
+		for (int e = 0; e < targets.length; e++)
+			predOffsets[targets[e] + 1]++;
+		for (int id = 0; id < size; id++)
+			predOffsets[id + 1] += predOffsets[id];
+		preds = new int[targets.length];
+		int[] fill = Arrays.copyOf(predOffsets, size);
+		for (int id = 0; id < size; id++) {
+			for (int e = offsets[id]; e < offsets[id + 1]; e++)
+				preds[fill[targets[e]]++] = id;
+		}
+	}
+
+	/**
+	 * Build the graph of all blocks in a store. Links to removed blocks are
+	 * left out.
+	 * @param store store of the blocks
+	 * @return the graph
+	 */
+	public static FlowGraph of(BlockStore store) {
+		int n = store.size();
+		int[] offsets = new int[n + 1];
+		int[] edges = new int[2 * n]; // at most two successors a block
+		int m = 0;
+		for (int id = 0; id < n; id++) {
+			offsets[id] = m;
+			BlockType type = store.getType(id);
+			if(type == null)
+				continue;
+			int next = linked(store, store.getNext(id));
+			int branch = linked(store, store.getBranch(id));
+
+			// Only decisions go on to next when they have a branch
+			if(branch != NONE && type != BlockType.DECISION)
+				next = NONE;
+			if(next != NONE)
+				edges[m++] = next;
+			if(branch != NONE && branch != next)
+				edges[m++] = branch;
+		}
+		offsets[n] = m;
+		return new FlowGraph(offsets, Arrays.copyOf(edges, m));
+	}
+
+	/**
+	 * Check a link of a block
+	 * @param store store of the blocks
+	 * @param id id of the linked block, or -1
+	 * @return the id, or -1 if there is none or it was removed
+	 */
+	private static int linked(BlockStore store, int id) {
+		return id == NONE || store.isRemoved(id) ? NONE : id;
+	}
+
+	/**
+	 * Getter for size
+	 * @return the number of block ids in the graph, including removed
+	 * blocks, which have no edges
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Getter for the number of edges
+	 * @return the number of edges between blocks
+	 */
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * Get the number of blocks control can go to from a block
+	 * @param id id of the block
+	 * @return 0 at the end of a chain, 1, or 2 for a decision
+	 */
+	public int getSuccessorCount(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	/**
+	 * Get a block control can go to from a block. A decision's next block
+	 * comes before its branch.
+	 * @param id id of the block
+	 * @param i index of the successor, less than getSuccessorCount(id)
+	 * @return the id of the successor
+	 */
+	public int getSuccessor(int id, int i) {
+		return targets[offsets[id] + i];
+	}
+
+	/**
+	 * Get the number of blocks control can come to a block from
+	 * @param id id of the block
+	 * @return the number of predecessors
+	 */
+	public int getPredecessorCount(int id) {
+		return predOffsets[id + 1] - predOffsets[id];
+	}
+
+	/**
+	 * Get a block control can come to a block from, in order of block id
+	 * @param id id of the block
+	 * @param i index of the predecessor, less than getPredecessorCount(id)
+	 * @return the id of the predecessor
+	 */
+	public int getPredecessor(int id, int i) {
+		return preds[predOffsets[id] + i];
+	}
+
+	/**
+	 * Create a walk through the graph, to be reused for every walk
+	 * @return a new walk with nothing reached
+	 */
+	public Walk newWalk() {
+		return new Walk();
+	}
+
+	/**
+	 * Walk finds the blocks reachable from a block, breadth first. Its
+	 * arrays are allocated once for the graph and only the blocks reached
+	 * by the last walk are cleared before the next one. A walk must only be
+	 * used by one thread at a time.
+	 */
+	public class Walk {
+		// Blocks reached in order, doubling as the queue of blocks to visit
+		private final int[] order = new int[size];
+		private final long[] reached = new long[(size + 63) >>> 6];
+		private int count = 0;
+
+		/**
+		 * Constructor for Walk
+		 */
+		private Walk() {
+		}
+
+		/**
+		 * Find the blocks control can reach from a block, including itself
+		 * @param start id of the block
+		 * @return the number of blocks reached
+		 */
+		public int from(int start) {
+			return walk(start, offsets, targets);
+		}
+
+		/**
+		 * Find the blocks control can reach a block from, including itself
+		 * @param start id of the block
+		 * @return the number of blocks reached
+		 */
+		public int to(int start) {
+			return walk(start, predOffsets, preds);
+		}
+
+		/**
+		 * Walk the edges breadth first from a block
+		 * @param start id of the block
+		 * @param offsets start of each block's edges
+		 * @param edges blocks the edges lead to
+		 * @return the number of blocks reached
+		 */
+		private int walk(int start, int[] offsets, int[] edges) {
+			clear();
+			order[count++] = start;
+			mark(start);
+			for (int head = 0; head < count; head++) {
+				int id = order[head];
+				for (int e = offsets[id]; e < offsets[id + 1]; e++) {
+					int to = edges[e];
+					if(!isReached(to)) {
+						mark(to);
+						order[count++] = to;
+					}
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Check if the last walk reached a block
+		 * @param id id of the block
+		 * @return true if the block was reached
+		 */
+		public boolean isReached(int id) {
+			return (reached[id >>> 6] & 1L << id) != 0;
+		}
+
+		/**
+		 * Getter for count
+		 * @return the number of blocks the last walk reached
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Get a block the last walk reached
+		 * @param i index of the block in the order it was reached, less
+		 * than getCount()
+		 * @return the id of the block
+		 */
+		public int get(int i) {
+			return order[i];
+		}
+
+		/**
+		 * Forget the blocks reached by the last walk
+		 */
+		public void clear() {
+			for (int i = 0; i < count; i++)
+				reached[order[i] >>> 6] = 0;
+			count = 0;
+		}
+
+		/**
+		 * Mark a block as reached
+		 * @param id id of the block
+		 */
+		private void mark(int id) {
+			reached[id >>> 6] |= 1L << id;
+		}
+	}
+}
@@ -1,79 +1,152 @@
 /**
  * FlowchartBlock is an abstract class serving as a basis for other blocks
- * to be handled polymorphically
+ * to be handled polymorphically. A block is a view over one block of a 
+ * BlockStore, which holds its data, and its points and shape are worked 
+ * out from its origin when asked for.
  * 
  * @author Minh Vo
  * @version 0.0.3
  */
 import java.awt.*;
+import java.awt.geom.*;
 
 public abstract class FlowchartBlock {
 	// width and height and arc curve of all flowchart blocks
 	private static final double WIDTH = 200; // Width of block
 	private static final double HEIGHT = 100; // Height of block
+	private static final int BUFFER = 50; // space between blocks
+	private static final int MSG_BUFFER = 15; /* Space between shape outline
+											     and text */
 
-	private String type; // Type of block
-	private Shape block; // Shape of block
-	private String msg; // Message of block
-	private int xStr; // x coordinate of msg drawing
-	private int yStr; // y coordinate of msg drawing
+	private final BlockStore store; // store holding the block's data
+	private final int id; // id of the block in the store
 	
-	// Pre and next FlowchartBlocks connected to this one
-	private FlowchartBlock pre;
-	private FlowchartBlock next;
-	
-	private Point origin; // top left corner of shape box
-	
-	// Top, bottom, right, left points to draw lines from
-	private Point top;
-	private Point bottom;
-	private Point right;
-	private Point left;
+	private BlockCanvas canv; // canvas to draw on
 
 	/** 
-	 * Constructor initializes all the private variables based on input 
-	 * values
+	 * Constructor adds a new block to the store of its previous block or 
+	 * canvas, or to a new store if it has neither
 	 * @param type Type of block
+	 * @param x x coordinate of block
+	 * @param y y coordinate of block
+	 * @param msg message of block
+	 * @param pre previous block connected to this one, may be null
+	 * @param c canvas to draw block on, may be null
 	 */
-	public FlowchartBlock (String type) {
-		this.type = type;
+	public FlowchartBlock (BlockType type, double x, double y, String msg, 
+			FlowchartBlock pre, BlockCanvas c) {
+		if(pre != null)
+			store = pre.getStore();
+		else if(c != null)
+			store = c.getStore();
+		else
+			store = new BlockStore();
+		
+		// Add the block and link it to pre
+		id = store.add(type, x, y, msg);
+		store.setBlock(id, this);
+		this.setPre(pre);
+		if(pre != null)
+			this.getPre().setNext(this);
+		this.setCanv(c);
 	}
 	
-	// Abstract methods to be implemented by children classes
-	// public abstract void paintBlock(BlockCanvas c);
-	public abstract void move(double deltaX, double deltaY);
-	public abstract boolean containsPoint(Point p);
-
 	/**
-	 * Getter for type
-	 * @return type of block
+	 * Constructor for a block already in a store
+	 * @param store store holding the block's data
+	 * @param id id of the block in the store
 	 */
-	public String getType() {
-		return type;
+	protected FlowchartBlock (BlockStore store, int id) {
+		this.store = store;
+		this.id = id;
 	}
-
+	
+	/**
+	 * Getter for block
+	 * @return a copy of the type's shape moved to the block's origin. 
+	 * Drawing and hit-testing use the shared template instead.
+	 */
+	public Shape getBlock() {
+		Point origin = getOrigin();
+		return AffineTransform.getTranslateInstance(origin.getX(), 
+			origin.getY()).createTransformedShape(getTemplate());
+	}
+	
+	/**
+	 * Getter for template
+	 * @return the shape shared by all blocks of this block's type, with the
+	 * origin at (0, 0)
+	 */
+	public Shape getTemplate() {
+		return store.getType(id).getTemplate();
+	}
+	
 	/**
-	 * Setter for type
-	 * @param type new type of block
+	 * Move the block on canvas
+	 * @param deltaX distance to move in x-direction
+	 * @param deltaY distance to move in y-direction
 	 */
-	public void setType(String type) {
-		this.type = type;
+	public void move(double deltaX, double deltaY) {
+		// The shape, points and message all follow the origin
+		store.translate(id, deltaX, deltaY);
+		
+		// Let the canvas keep its spatial index up to date
+		if(getCanv() != null)
+			getCanv().blockMoved(this);
+	}
+	
+	/**
+	 * Check if the shape contains a point
+	 * @param p point to check for insideness
+	 */
+	public boolean containsPoint(Point p) {
+		// Test the point relative to the origin against the template
+		Point origin = getOrigin();
+		return getTemplate().contains(p.getX() - origin.getX(), 
+			p.getY() - origin.getY());
+	}
+	
+	/**
+	 * Check if the shape intersects a rectangle
+	 * @param r rectangle to check
+	 * @return true if the shape and the rectangle overlap
+	 */
+	public boolean intersects(Rectangle2D r) {
+		Point origin = getOrigin();
+		return getTemplate().intersects(r.getX() - origin.getX(), 
+			r.getY() - origin.getY(), r.getWidth(), r.getHeight());
+	}
+	
+	/**
+	 * Getter for store
+	 * @return the store holding the block's data
+	 */
+	public BlockStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * Getter for id
+	 * @return the id of the block in its store
+	 */
+	public int getId() {
+		return id;
 	}
 
 	/**
-	 * Getter for block
-	 * @return the block shape object
+	 * Getter for type
+	 * @return name of the type of block
 	 */
-	public Shape getBlock() {
-		return block;
+	public String getType() {
+		return store.getType(id).getName();
 	}
 
 	/**
-	 * Setter for block
-	 * @param block the new block shape object
+	 * Getter for blockType
+	 * @return type of block
 	 */
-	public void setBlock(Shape block) {
-		this.block = block;
+	public BlockType getBlockType() {
+		return store.getType(id);
 	}
 	
 	/**
@@ -81,7 +154,7 @@ public abstract class FlowchartBlock {
 	 * @return message of the block
 	 */
 	public String getMsg() {
-		return msg;
+		return store.getMsg(id);
 	}
 
 	/**
@@ -89,7 +162,7 @@ public abstract class FlowchartBlock {
 	 * @param msg new message contained by block
 	 */
 	public void setMsg(String msg) {
-		this.msg = msg;
+		store.setMsg(id, msg);
 	}
 
 	/**
@@ -97,15 +170,7 @@ public abstract class FlowchartBlock {
 	 * @return x coordinate of string drawing on canvas
 	 */
 	public int getxStr() {
-		return xStr;
-	}
-
-	/**
-	 * Setter for xStr
-	 * @param xStr new x coordinate of string drawing on canvas
-	 */
-	public void setxStr(int xStr) {
-		this.xStr = xStr;
+		return store.getX(id) + MSG_BUFFER;
 	}
 
 	/**
@@ -113,15 +178,7 @@ public abstract class FlowchartBlock {
 	 * @return y coordinate of string drawing on canvas
 	 */
 	public int getyStr() {
-		return yStr;
-	}
-
-	/**
-	 * Setter for yStr
-	 * @param yStr new y coordinate of string drawing on canvas
-	 */
-	public void setyStr(int yStr) {
-		this.yStr = yStr;
+		return store.getY(id) + MSG_BUFFER;
 	}
 	
 	/**
@@ -129,7 +186,7 @@ public abstract class FlowchartBlock {
 	 * @return the previous block connected to this one
 	 */
 	public FlowchartBlock getPre() {
-		return pre;
+		return store.getBlock(store.getPre(id));
 	}
 
 	/**
@@ -137,7 +194,7 @@ public abstract class FlowchartBlock {
 	 * @param pre a new previous block connected to this one
 	 */
 	public void setPre(FlowchartBlock pre) {
-		this.pre = pre;
+		store.setPre(id, idOf(pre));
 	}
 
 	/**
@@ -145,7 +202,7 @@ public abstract class FlowchartBlock {
 	 * @return the next block connected to this one
 	 */
 	public FlowchartBlock getNext() {
-		return next;
+		return store.getBlock(store.getNext(id));
 	}
 
 	/**
@@ -153,7 +210,56 @@ public abstract class FlowchartBlock {
 	 * @param next a new next block connected to this one
 	 */
 	public void setNext(FlowchartBlock next) {
-		this.next = next;
+		store.setNext(id, idOf(next));
+	}
+
+	/**
+	 * Getter for branch
+	 * @return the block control jumps to from this one instead of going on
+	 * to next, or the other way out of a decision, or null
+	 */
+	public FlowchartBlock getBranch() {
+		return store.getBlock(store.getBranch(id));
+	}
+
+	/**
+	 * Setter for branch
+	 * @param branch a new block control jumps to from this one, may be null
+	 */
+	public void setBranch(FlowchartBlock branch) {
+		store.setBranch(id, idOf(branch));
+	}
+
+	/**
+	 * Get the id of a block linked to this one
+	 * @param block block being linked, may be null
+	 * @return the id of the block, or -1 for null
+	 */
+	private int idOf(FlowchartBlock block) {
+		if(block == null)
+			return -1;
+		
+		// Links are ids, so they can't cross stores
+		if(block.getStore() != store)
+			throw new IllegalArgumentException(
+				"Blocks from different charts can't be linked");
+		return block.getId();
+	}
+	
+	/**
+	 * Getter for x
+	 * @return the x coordinate of the origin
+	 */
+	public double getX() {
+		return store.getX(id);
+	}
+	
+	/**
+	 * Getter for y
+	 * @return the y coordinate of the origin
+	 */
+	public double getY() {
+		return store.getY(id);
 	}
 
 	/**
@@ -161,7 +267,7 @@ public abstract class FlowchartBlock {
 	 * @return get the origin x and y point of this block
 	 */
 	public Point getOrigin() {
-		return origin;
+		return store.getLocation(id);
 	}
 
 	/**
@@ -169,23 +275,27 @@ public abstract class FlowchartBlock {
 	 * @param origin set a new origin x and y point of this block
 	 */
 	public void setOrigin(Point origin) {
-		this.origin = origin;
+		setOrigin(origin.getX(), origin.getY());
 	}
 
 	/**
-	 * Getter for top
-	 * @return the top Point
+	 * Setter for origin, without a Point so charts laid out without being
+	 * drawn don't load AWT classes
+	 * @param x new x coordinate of the origin
+	 * @param y new y coordinate of the origin
 	 */
-	public Point getTop() {
-		return top;
+	public void setOrigin(double x, double y) {
+		store.setLocation(id, x, y);
+		if(getCanv() != null)
+			getCanv().blockMoved(this);
 	}
 
 	/**
-	 * Setter for top
-	 * @param top the new top Point
+	 * Getter for top
+	 * @return the top Point
 	 */
-	public void setTop(Point top) {
-		this.top = top;
+	public Point getTop() {
+		return new Point((int) (getX() + getWidth()/2), (int) getY());
 	}
 
 	/**
@@ -193,15 +303,8 @@ public abstract class FlowchartBlock {
 	 * @return the bottom Point
 	 */
 	public Point getBottom() {
-		return bottom;
-	}
-
-	/**
-	 * Setter for bottom
-	 * @param top the new bottom Point
-	 */
-	public void setBottom(Point bottom) {
-		this.bottom = bottom;
+		return new Point((int) (getX() + getWidth()/2), 
+			(int) (getY() + getHeight()));
 	}
 
 	/**
@@ -209,15 +312,8 @@ public abstract class FlowchartBlock {
 	 * @return the right Point
 	 */
 	public Point getRight() {
-		return right;
-	}
-
-	/**
-	 * Setter for right
-	 * @param top the new right Point
-	 */
-	public void setRight(Point right) {
-		this.right = right;
+		return new Point((int) (getX() + getWidth()), 
+			(int) (getY() + getHeight()/2));
 	}
 
 	/**
@@ -225,15 +321,23 @@ public abstract class FlowchartBlock {
 	 * @return the left Point
 	 */
 	public Point getLeft() {
-		return left;
+		return new Point((int) getX(), (int) (getY() + getHeight()/2));
+	}
+	
+	/**
+	 * Getter for canv
+	 * @return the canvas of the block
+	 */
+	public BlockCanvas getCanv() {
+		return canv;
 	}
 
 	/**
-	 * Setter for left
-	 * @param top the new left Point
+	 * Setter for canv
+	 * @param canv new canvas for block
 	 */
-	public void setLeft(Point left) {
-		this.left = left;
+	public void setCanv(BlockCanvas canv) {
+		this.canv = canv;
 	}
 	
 	/**
@@ -251,4 +355,20 @@ public abstract class FlowchartBlock {
 	public static double getHeight() {
 		return HEIGHT;
 	}
+
+	/**
+	 * Getter for BUFFER
+	 * @return the default space between stacked blocks
+	 */
+	public static int getBuffer() {
+		return BUFFER;
+	}
+
+	/**
+	 * Getter for MSG_BUFFER
+	 * @return the space between the shape outline and the message
+	 */
+	public static int getMsgBuffer() {
+		return MSG_BUFFER;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,435 @@
+/**
+ * IncrementalParser keeps a chart up to date with source code that is
+ * being edited. The code is split into class level regions, such as
+ * methods and fields, and each region is fingerprinted. When the code
+ * changes, only the regions whose text changed are parsed again, and their
+ * blocks are spliced into the chain in place of the old ones. The blocks of
+ * unchanged regions are kept where they are. An update can run on a
+ * worker thread, which reports how much code it parsed and can be
+ * interrupted until it starts changing the chart.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.Point;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IncrementalParser {
+	private BlockSink sink; // receiver of added and removed blocks
+	private BlockCanvas canv; // canvas the blocks are created for
+
+	// Position of the first block
+	private double x;
+	private double y;
+
+	private BlockStore store; // store holding the chart's blocks
+
+	// Regions of the code last parsed with their first and last blocks,
+	// which are null for regions without blocks
+	private ArrayList<CodeRegion> regions = new ArrayList<CodeRegion>();
+	private ArrayList<FlowchartBlock> firsts = new ArrayList<FlowchartBlock>();
+	private ArrayList<FlowchartBlock> lasts = new ArrayList<FlowchartBlock>();
+
+	private int parsed = 0; // regions parsed by the last update
+
+	// First blocks of the regions the last update parsed again, each in
+	// the place of one old region, or null if the chart changed otherwise
+	private ArrayList<FlowchartBlock> changed;
+
+	// Chars parsed by the running update and the chars it has to parse, 0
+	// until that is known
+	private final AtomicLong read = new AtomicLong();
+	private volatile long toRead = 0;
+
+	/**
+	 * Constructor for IncrementalParser
+	 * @param sink receiver of added and removed blocks
+	 * @param x x coordinate of the first block
+	 * @param y y coordinate of the first block
+	 * @param c canvas to create the blocks for, may be null
+	 */
+	public IncrementalParser(BlockSink sink, double x, double y,
+			BlockCanvas c) {
+		this.sink = sink;
+		this.x = x;
+		this.y = y;
+		this.canv = c;
+	}
+
+	/**
+	 * Bring the chart up to date with the code. The first time, all of the
+	 * code is parsed; after that only the regions that changed are.
+	 * Interrupting the thread stops the first parse, leaving its blocks
+	 * half made, and later updates only until they change the chart.
+	 * @param code the whole source code
+	 * @return the first block of the chart, or null if there are none
+	 * @throws InterruptedIOException if the thread was interrupted
+	 * @throws IOException if the code can't be read
+	 */
+	public FlowchartBlock update(String code) throws IOException {
+		read.set(0);
+		toRead = 0;
+		this.changed = null;
+		if(firsts.isEmpty()) {
+			toRead = code.length();
+			return parseAll(code);
+		}
+
+		// Find the regions of the new code without creating any blocks
+		ArrayList<CodeRegion> now = new ArrayList<CodeRegion>();
+		CodeParser scanner = new CodeParser(new ProgressReader(code, true),
+			sink, x, y, canv);
+		scanner.splitInto(now, false);
+		scanner.parse();
+		int[] match = match(regions, now);
+
+		// Only the changed regions are parsed from here on, and the chart 
+		// is changed, so the update can no longer be stopped
+		long changed = 0;
+		for (int i = 0; i < match.length; i++) {
+			if(match[i] < 0)
+				changed += now.get(i).getEnd() - now.get(i).getStart();
+		}
+		read.set(0);
+		toRead = changed;
+
+		// Each new region takes the place of one old region if the regions
+		// kept stay in their places
+		boolean inPlace = true;
+		int o = 0; // old region in the place of the new region
+		for (int i = 0; i < match.length; i++) {
+			if(match[i] >= 0 && match[i] != o)
+				inPlace = false;
+			o = (match[i] >= 0 ? match[i] : o) + 1;
+		}
+		inPlace &= o == regions.size();
+		FlowchartBlock oldHead = null;
+		for (int i = 0; i < firsts.size() && oldHead == null; i++)
+			oldHead = firsts.get(i);
+		ArrayList<FlowchartBlock> reparsed = new ArrayList<FlowchartBlock>();
+
+		// Build the new chain from kept and newly parsed regions
+		ArrayList<FlowchartBlock> newFirsts = new ArrayList<FlowchartBlock>();
+		ArrayList<FlowchartBlock> newLasts = new ArrayList<FlowchartBlock>();
+		boolean[] kept = new boolean[regions.size()];
+		for (int i = 0; i < match.length; i++) {
+			if(match[i] >= 0)
+				kept[match[i]] = true;
+		}
+		FlowchartBlock head = null;
+		FlowchartBlock last = null; // last block of the new chain so far
+		int replaced = 0; // old region a new region takes the place of
+		parsed = 0;
+		for (int i = 0; i < now.size(); i++) {
+			FlowchartBlock first;
+			if(match[i] >= 0) {
+				// Link the kept blocks after the chain so far
+				replaced = match[i] + 1;
+				first = firsts.get(match[i]);
+				if(first != null && first.getPre() != last) {
+					if(last != null)
+						last.setNext(first);
+					first.setPre(last);
+					if(canv != null)
+						canv.blockMoved(first);
+				}
+				newFirsts.add(first);
+				newLasts.add(first != null ? lasts.get(match[i]) : null);
+			} else {
+				// Put new blocks where the blocks they replace were
+				Point at;
+				if(replaced < regions.size() && !kept[replaced] &&
+						firsts.get(replaced) != null)
+					at = firsts.get(replaced).getOrigin();
+				else if(last != null)
+					at = new Point((int) last.getX(), (int) (last.getY() +
+						FlowchartBlock.getHeight() +
+						FlowchartBlock.getBuffer()));
+				else
+					at = new Point((int) x, (int) y);
+				if(replaced < regions.size() && !kept[replaced])
+					replaced++;
+
+				FlowchartBlock[] ends = parse(code, now.get(i), last, at);
+				first = ends[0];
+				newFirsts.add(first);
+				newLasts.add(ends[1]);
+				parsed++;
+				if(inPlace && (first == null) != (firsts.get(i) == null))
+					inPlace = false;
+				else if(first != null)
+					reparsed.add(first);
+			}
+			if(first != null) {
+				if(head == null)
+					head = first;
+				last = newLasts.get(i);
+			}
+		}
+		if(last != null && last.getNext() != null)
+			last.setNext(null);
+
+		// Remove the blocks of regions that are gone
+		for (int i = 0; i < regions.size(); i++) {
+			if(kept[i])
+				continue;
+			FlowchartBlock block = firsts.get(i);
+			for (int n = 0; n < regions.get(i).getCount() && block != null;
+					n++) {
+				// The sink frees the block once it is done with it
+				FlowchartBlock next = block.getNext();
+				sink.removeBlock(block);
+				block = next;
+			}
+		}
+
+		regions = now;
+		firsts = newFirsts;
+		lasts = newLasts;
+		if(inPlace && head == oldHead)
+			this.changed = reparsed;
+		return head;
+	}
+
+	/**
+	 * Getter for changed
+	 * @return the first blocks of the regions the last update parsed
+	 * again, each taking the place of the blocks of one old region, or
+	 * null if the update parsed all of the code, added, removed or moved
+	 * regions or changed the first block of the chart
+	 */
+	public List<FlowchartBlock> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * Parse all of the code, remembering which blocks came from which
+	 * region
+	 * @param code the whole source code
+	 * @return the first block of the chart, or null if there are none
+	 * @throws IOException if the code can't be read
+	 */
+	private FlowchartBlock parseAll(String code) throws IOException {
+		FlowchartBlock[] first = new FlowchartBlock[1];
+		CodeParser parser = new CodeParser(new ProgressReader(code, true),
+				block -> {
+			if(first[0] == null)
+				first[0] = block;
+			sink.addBlock(block);
+		}, x, y, canv);
+		parser.setStore(store);
+		regions = new ArrayList<CodeRegion>();
+		parser.splitInto(regions, true);
+		parser.parse();
+		parsed = regions.size();
+
+		// Hand the chain's blocks out to the regions they came from
+		firsts.clear();
+		lasts.clear();
+		FlowchartBlock block = first[0];
+		for (int i = 0; i < regions.size(); i++) {
+			firsts.add(regions.get(i).getCount() > 0 ? block : null);
+			for (int n = 1; n < regions.get(i).getCount(); n++)
+				block = block.getNext();
+			lasts.add(regions.get(i).getCount() > 0 ? block : null);
+			if(regions.get(i).getCount() > 0)
+				block = block.getNext();
+		}
+		if(first[0] != null)
+			store = first[0].getStore();
+		return first[0];
+	}
+
+	/**
+	 * Parse one region of code on its own
+	 * @param code the whole source code
+	 * @param region region to parse
+	 * @param pre block the region's blocks follow, may be null
+	 * @param at position of the region's first block
+	 * @return the first and last blocks of the region, or nulls if it has
+	 * none
+	 * @throws IOException if the code can't be read
+	 */
+	private FlowchartBlock[] parse(String code, CodeRegion region,
+			FlowchartBlock pre, Point at) throws IOException {
+		FlowchartBlock[] ends = new FlowchartBlock[2];
+		CodeParser parser = new CodeParser(new ProgressReader(code.substring(
+				region.getStart(), region.getEnd()), false), block -> {
+			if(ends[0] == null)
+				ends[0] = block;
+			ends[1] = block;
+			sink.addBlock(block);
+		}, at.getX(), at.getY(), canv);
+		parser.setPre(pre);
+		parser.setStore(store);
+
+		// A class's closing brace needs the class it closes
+		if(region.getCloser() != null)
+			parser.openBlock(region.getCloser());
+		parser.parse();
+		if(store == null && ends[0] != null)
+			store = ends[0].getStore();
+		return ends;
+	}
+
+	/**
+	 * Match new regions to unchanged old regions, keeping their order.
+	 * Regions at the start and end that didn't change are matched first,
+	 * then regions whose text appears once in both versions, then the
+	 * regions next to those.
+	 * @param old regions of the old code
+	 * @param now regions of the new code
+	 * @return the old region matching each new region, or -1
+	 */
+	private static int[] match(List<CodeRegion> old, List<CodeRegion> now) {
+		int[] match = new int[now.size()];
+		Arrays.fill(match, -1);
+
+		// Common start and end
+		int lo = 0;
+		while(lo < old.size() && lo < now.size() &&
+				same(old.get(lo), now.get(lo))) {
+			match[lo] = lo;
+			lo++;
+		}
+		int oldHi = old.size();
+		int newHi = now.size();
+		while(oldHi > lo && newHi > lo &&
+				same(old.get(oldHi - 1), now.get(newHi - 1)))
+			match[--newHi] = --oldHi;
+		if(lo == oldHi || lo == newHi)
+			return match;
+
+		// Regions appearing once in both of the changed middles
+		HashMap<Long, Integer> unique = new HashMap<Long, Integer>();
+		for (int j = lo; j < oldHi; j++)
+			unique.merge(old.get(j).getHash(), j, (a, b) -> -1);
+		HashMap<Long, Integer> seen = new HashMap<Long, Integer>();
+		for (int i = lo; i < newHi; i++)
+			seen.merge(now.get(i).getHash(), 1, Integer::sum);
+		int[] news = new int[newHi - lo];
+		int[] olds = new int[newHi - lo];
+		int n = 0;
+		for (int i = lo; i < newHi; i++) {
+			Integer j = unique.get(now.get(i).getHash());
+			if(j != null && j >= 0 && seen.get(now.get(i).getHash()) == 1 &&
+					same(old.get(j), now.get(i))) {
+				news[n] = i;
+				olds[n++] = j;
+			}
+		}
+
+		// Keep the longest run of them still in the same order
+		int[] tails = new int[n]; // last pair of each run length
+		int[] prev = new int[n]; // pair before each pair in its run
+		int runs = 0;
+		for (int k = 0; k < n; k++) {
+			int a = 0;
+			int b = runs;
+			while(a < b) {
+				int mid = (a + b) >>> 1;
+				if(olds[tails[mid]] < olds[k])
+					a = mid + 1;
+				else
+					b = mid;
+			}
+			prev[k] = a > 0 ? tails[a - 1] : -1;
+			tails[a] = k;
+			if(a == runs)
+				runs++;
+		}
+		boolean[] taken = new boolean[old.size()];
+		for (int k = runs > 0 ? tails[runs - 1] : -1; k >= 0; k = prev[k]) {
+			match[news[k]] = olds[k];
+			taken[olds[k]] = true;
+		}
+
+		// Grow each match over unchanged neighbours
+		for (int i = lo; i < newHi; i++) {
+			int j = match[i];
+			if(j < 0)
+				continue;
+			for (int a = i + 1, b = j + 1; a < newHi && b < oldHi &&
+					match[a] < 0 && !taken[b] && same(old.get(b),
+					now.get(a)); a++, b++) {
+				match[a] = b;
+				taken[b] = true;
+			}
+			for (int a = i - 1, b = j - 1; a >= lo && b >= lo &&
+					match[a] < 0 && !taken[b] && same(old.get(b),
+					now.get(a)); a--, b--) {
+				match[a] = b;
+				taken[b] = true;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Check if two regions have the same code
+	 * @param a a region
+	 * @param b another region
+	 * @return true if the regions' fingerprints and block counts match
+	 */
+	private static boolean same(CodeRegion a, CodeRegion b) {
+		return a.getHash() == b.getHash() && a.getCount() == b.getCount();
+	}
+
+	/**
+	 * Get how far the running update is
+	 * @return the share of the code it has to parse that it parsed, from 0
+	 * to 1, or -1 while it is still finding the changed regions
+	 */
+	public double getProgress() {
+		long n = toRead;
+		return n == 0 ? -1 : Math.min(1, (double) read.get() / n);
+	}
+
+	/**
+	 * Getter for parsed
+	 * @return the number of regions parsed by the last update
+	 */
+	public int getParsed() {
+		return parsed;
+	}
+
+	/**
+	 * Getter for the number of regions
+	 * @return the number of regions in the code last parsed
+	 */
+	public int getRegionCount() {
+		return regions.size();
+	}
+
+	/**
+	 * ProgressReader reads code for an update, counting the chars read.
+	 * When stopping is allowed, it stops the update once the thread is
+	 * interrupted.
+	 */
+	private class ProgressReader extends FilterReader {
+		private final boolean stoppable; // true to stop when interrupted
+
+		/**
+		 * Constructor for ProgressReader
+		 * @param code code to read
+		 * @param stoppable true to stop reading when the thread is
+		 * interrupted
+		 */
+		ProgressReader(String code, boolean stoppable) {
+			super(new StringReader(code));
+			this.stoppable = stoppable;
+		}
+
+		@Override
+		public int read(char[] buf, int off, int len) throws IOException {
+			if(stoppable && Thread.interrupted())
+				throw new InterruptedIOException("Conversion cancelled");
+			int n = super.read(buf, off, len);
+			if(n > 0)
+				read.addAndGet(n);
+			return n;
+		}
+	}
+}
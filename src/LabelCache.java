@@ -0,0 +1,267 @@
+/**
+ * LabelCache lays out the messages of blocks into lines wrapped to the
+ * width of a block, and keeps the lines so they are shaped only once. A
+ * label is laid out again only when its block's message is set, or when
+ * the font or zoom it is drawn with changes. Labels are kept in arrays
+ * indexed by block id, like the columns of BlockStore.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.awt.*;
+import java.awt.font.*;
+import java.awt.geom.AffineTransform;
+import java.util.*;
+
+public class LabelCache {
+	private static final int INITIAL_CAPACITY = 64; // labels before growing
+	private static final String ELLIPSIS = "..."; // end of cut off labels
+	private static final GlyphVector[] NO_LINES = new GlyphVector[0];
+	private static final String[] NO_TEXT = new String[0];
+
+	private BlockStore store; // store of the blocks whose labels are kept
+
+	// Font and render context the labels were laid out with, the distance
+	// between baselines and the width of the ellipsis in that font
+	private Font font;
+	private FontRenderContext frc;
+	private float lineHeight;
+	private float ellipsisWidth;
+
+	// Lines of each block's label, and the message they were laid out from
+	private GlyphVector[][] lines = new GlyphVector[INITIAL_CAPACITY][];
+	private String[] msgs = new String[INITIAL_CAPACITY];
+
+	/**
+	 * Draw a block's label, laying it out first if it isn't cached
+	 * @param g2 Graphics2D object to draw on, with the font to use
+	 * @param block block whose message to draw
+	 */
+	public void draw(Graphics2D g2, FlowchartBlock block) {
+		GlyphVector[] label = getLines(g2, block);
+		for (int i = 0; i < label.length; i++)
+			g2.drawGlyphVector(label[i], block.getxStr(),
+				block.getyStr() + i * lineHeight);
+	}
+
+	/**
+	 * Get the lines of a block's label, laying them out if the message
+	 * changed or the font or zoom of the graphics isn't the cached one
+	 * @param g2 Graphics2D object the label will be drawn on
+	 * @param block block whose message to lay out
+	 * @return the lines of the label
+	 */
+	public GlyphVector[] getLines(Graphics2D g2, FlowchartBlock block) {
+		use(g2);
+		if(block.getStore() != store) {
+			clear();
+			store = block.getStore();
+		}
+
+		// Messages are only replaced by setMsg, so an unchanged message is
+		// the same string the label was laid out from
+		int id = block.getId();
+		if(id >= lines.length)
+			grow(id + 1);
+		String msg = block.getMsg();
+		if(lines[id] == null || msgs[id] != msg) {
+			lines[id] = layout(msg);
+			msgs[id] = msg;
+		}
+		return lines[id];
+	}
+
+	/**
+	 * Draw a block's label without keeping its lines, for drawing blocks
+	 * that are each only drawn once or a few times, such as when exporting
+	 * @param g2 Graphics2D object to draw on, with the font to use
+	 * @param block block whose message to draw
+	 */
+	public void drawOnce(Graphics2D g2, FlowchartBlock block) {
+		use(g2);
+		GlyphVector[] label = layout(block.getMsg());
+		for (int i = 0; i < label.length; i++)
+			g2.drawGlyphVector(label[i], block.getxStr(),
+				block.getyStr() + i * lineHeight);
+	}
+
+	/**
+	 * Wrap a message into the lines of its label as text, without keeping
+	 * them, for drawing it somewhere glyphs can't be drawn
+	 * @param g2 Graphics2D object to measure the message with, with the font
+	 * to use
+	 * @param msg message to wrap, may be null
+	 * @return the lines of the label, getLineHeight() apart
+	 */
+	public String[] getText(Graphics2D g2, String msg) {
+		use(g2);
+		return wrap(msg);
+	}
+
+	/**
+	 * Getter for lineHeight
+	 * @return the distance between the baselines of a label's lines in the
+	 * font last drawn with
+	 */
+	public float getLineHeight() {
+		return lineHeight;
+	}
+
+	/**
+	 * Forget the label of a block, such as after it was removed
+	 * @param block block whose label to forget
+	 */
+	public void remove(FlowchartBlock block) {
+		if(block.getStore() != store || block.getId() >= lines.length)
+			return;
+		lines[block.getId()] = null;
+		msgs[block.getId()] = null;
+	}
+
+	/**
+	 * Forget all labels
+	 */
+	public void clear() {
+		Arrays.fill(lines, null);
+		Arrays.fill(msgs, null);
+		store = null;
+	}
+
+	/**
+	 * Lay out labels with the font and zoom of a graphics, forgetting the
+	 * labels laid out with any other
+	 * @param g2 Graphics2D object labels will be drawn on
+	 */
+	private void use(Graphics2D g2) {
+		FontRenderContext gfrc = g2.getFontRenderContext();
+		if(!g2.getFont().equals(font) || frc == null ||
+				!sameScale(gfrc.getTransform(), frc.getTransform()))
+			reset(g2.getFont(), gfrc);
+	}
+
+	/**
+	 * Forget all labels and lay out new ones with another font or zoom
+	 * @param font font to lay out with
+	 * @param frc render context of the graphics drawn on
+	 */
+	private void reset(Font font, FontRenderContext frc) {
+		clear();
+		this.font = font;
+		this.frc = frc;
+		LineMetrics metrics = font.getLineMetrics(ELLIPSIS, frc);
+		lineHeight = metrics.getAscent() + metrics.getDescent() +
+			metrics.getLeading();
+		ellipsisWidth = (float) font.createGlyphVector(frc, ELLIPSIS)
+			.getGlyphPosition(ELLIPSIS.length()).getX();
+	}
+
+	/**
+	 * Lay out a message into the glyphs of its lines
+	 * @param msg message to lay out
+	 * @return the lines of the message
+	 */
+	private GlyphVector[] layout(String msg) {
+		String[] text = wrap(msg);
+		if(text.length == 0)
+			return NO_LINES;
+		GlyphVector[] label = new GlyphVector[text.length];
+		for (int i = 0; i < text.length; i++)
+			label[i] = font.createGlyphVector(frc, text[i]);
+		return label;
+	}
+
+	/**
+	 * Wrap a message into lines that fit inside a block. Lines break at
+	 * spaces, words too long for a line are broken, and a message too long
+	 * for the block is cut off with an ellipsis; the edit panel still shows
+	 * all of it.
+	 * @param msg message to wrap
+	 * @return the text of each line of the message
+	 */
+	private String[] wrap(String msg) {
+		if(msg == null || msg.isEmpty())
+			return NO_TEXT;
+
+		// Measure the whole message once. Glyph vectors made from a string
+		// have a glyph for each char, so glyph positions are char positions
+		GlyphVector all = font.createGlyphVector(frc, msg);
+		int n = msg.length();
+		float[] xs = all.getGlyphPositions(0, n + 1, null);
+		float width = (float) (FlowchartBlock.getWidth() -
+			2 * FlowchartBlock.getMsgBuffer());
+		int maxLines = 1 + (int) ((FlowchartBlock.getHeight() -
+			2 * FlowchartBlock.getMsgBuffer()) / lineHeight);
+
+		ArrayList<String> wrapped = new ArrayList<String>();
+		int start = 0;
+		while(start < n) {
+			// Cut off the last line that fits if there is more after it
+			boolean last = wrapped.size() == maxLines - 1;
+			int end = fit(xs, start, n, width);
+			if(last && end < n) {
+				end = fit(xs, start, n, width - ellipsisWidth);
+				wrapped.add(msg.substring(start, end).trim() + ELLIPSIS);
+				break;
+			}
+
+			// Break at the last space that fits, if there is one
+			int next = end;
+			if(end < n) {
+				int space = msg.lastIndexOf(' ', end);
+				if(space > start) {
+					end = space;
+					next = space + 1;
+				}
+			}
+			while(end > start && msg.charAt(end - 1) == ' ')
+				end--;
+			if(end > start)
+				wrapped.add(msg.substring(start, end));
+			while(next < n && msg.charAt(next) == ' ')
+				next++;
+			start = next;
+		}
+		return wrapped.toArray(new String[wrapped.size()]);
+	}
+
+	/**
+	 * Find how many chars of a message fit on a line
+	 * @param xs x and y positions of each glyph and the end of the message
+	 * @param start index of the line's first char
+	 * @param n length of the message
+	 * @param width width of the line
+	 * @return the index after the last char that fits, at least one char
+	 * past start
+	 */
+	private static int fit(float[] xs, int start, int n, float width) {
+		float limit = xs[2 * start] + width;
+		int end = start + 1;
+		while(end < n && xs[2 * (end + 1)] <= limit)
+			end++;
+		return end;
+	}
+
+	/**
+	 * Check if two transforms scale and rotate the same way, ignoring where
+	 * they translate to
+	 * @param a a transform
+	 * @param b another transform
+	 * @return true if the transforms only differ by a translation
+	 */
+	private static boolean sameScale(AffineTransform a, AffineTransform b) {
+		return a.getScaleX() == b.getScaleX() &&
+			a.getScaleY() == b.getScaleY() &&
+			a.getShearX() == b.getShearX() &&
+			a.getShearY() == b.getShearY();
+	}
+
+	/**
+	 * Grow the arrays to hold a block id
+	 * @param capacity least number of labels to hold
+	 */
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, lines.length * 2);
+		lines = Arrays.copyOf(lines, capacity);
+		msgs = Arrays.copyOf(msgs, capacity);
+	}
+}
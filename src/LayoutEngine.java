@@ -0,0 +1,617 @@
+/**
+ * LayoutEngine places the blocks of a chart in layers. Every block gets a
+ * row of its own in the order of its chain and is indented by how deeply
+ * its code is nested. Each method gets a column next to the class it
+ * belongs to, and separate chains are placed side by side. Blocks are
+ * classified and methods are placed in parallel on a fork-join pool, and
+ * a chart that was laid out before can be updated one method at a time.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LayoutEngine {
+	private static final int CHUNK = 4096; // blocks classified per task
+	private static final int NONE = -1; // id of a missing block
+
+	// Kinds of blocks by how they change the nesting depth
+	private static final byte PLAIN = 0;
+	private static final byte BEGIN = 1; // terminator opening a class or method
+	private static final byte END = 2; // terminator closing one
+	private static final byte OPEN = 3; // data block ending in "{"
+	private static final byte CLOSE = 4; // data block starting with "}"
+	private static final byte CLOSE_OPEN = 5; // "} else {" and the like
+
+	private final ForkJoinPool pool; // pool used outside of fork-join tasks
+
+	// Last chart laid out
+	private BlockStore store;
+	private int size; // number of blocks in the store when laid out
+	private int[] order = new int[0]; // block ids in chain order
+	private int[] posOf = new int[0]; // position of each block id in order
+	private byte[] kinds = new byte[0]; // kind of each block, by position
+	private int[] indents = new int[0]; // indent of each block, by position
+	private int[] regionOf = new int[0]; // region of each block, by position
+	private ArrayList<Region> regions = new ArrayList<Region>();
+
+	// Log the moves of the layout being applied are recorded in, or null
+	private CommandLog log;
+
+	/**
+	 * Constructor for LayoutEngine using the common pool
+	 */
+	public LayoutEngine() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor for LayoutEngine
+	 * @param pool pool to lay out charts on
+	 */
+	public LayoutEngine(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Lay out every chain of a store. The first chain stays where its
+	 * first block is and the others are placed to the right of it.
+	 * @param store store holding the blocks
+	 * @return the number of blocks moved
+	 */
+	public int layout(BlockStore store) {
+		return layout(store, NONE);
+	}
+
+	/**
+	 * Lay out only the chain starting at a block, leaving the other chains
+	 * of its store, such as blocks replaced but not freed yet, alone
+	 * @param head first block of the chain
+	 * @return the number of blocks moved
+	 */
+	public int layout(FlowchartBlock head) {
+		return layout(head.getStore(), head.getId());
+	}
+
+	/**
+	 * Lay out the chains of a store
+	 * @param store store holding the blocks
+	 * @param only id of the first block of the only chain to lay out, or
+	 * NONE for every chain
+	 * @return the number of blocks moved
+	 */
+	private int layout(BlockStore store, int only) {
+		this.store = store;
+		size = store.size();
+
+		// Put the blocks of each chain in order. Asking every block for
+		// its pre reads the whole store, so the tasks below only read
+		// loaded columns.
+		order = new int[size];
+		posOf = new int[size];
+		Arrays.fill(posOf, NONE);
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		int n = 0;
+		int last = only == NONE ? size : only + 1;
+		for (int head = only == NONE ? 0 : only; head < last; head++) {
+			if(store.getPre(head) != NONE || store.isRemoved(head))
+				continue;
+			starts.add(n);
+			for (int id = head; id != NONE && posOf[id] == NONE;
+					id = store.getNext(id)) {
+				posOf[id] = n;
+				order[n++] = id;
+			}
+		}
+		order = Arrays.copyOf(order, n);
+
+		// Classify the blocks in parallel
+		kinds = new byte[n];
+		indents = new int[n];
+		regionOf = new int[n];
+		run(new ClassifyTask(0, n));
+
+		// Split the chains into regions, then place them in parallel
+		regions = new ArrayList<Region>();
+		for (int i = 0; i < starts.size(); i++)
+			split(starts.get(i), i + 1 < starts.size() ?
+				starts.get(i + 1) : n);
+		run(new PlaceTask(0, regions.size()));
+
+		// Put the columns next to each other, each as wide as its widest
+		// region, then move the blocks
+		if(n > 0) {
+			int x = store.getX(order[0]);
+			int y = store.getY(order[0]);
+			int first = 0;
+			for (int i = 1; i <= regions.size(); i++) {
+				if(i < regions.size() && regions.get(i).chain ==
+						regions.get(first).chain)
+					continue;
+				x = placeColumns(first, i, x, y);
+				first = i;
+			}
+		}
+		Telemetry.Span moving = Telemetry.MOVE.begin();
+		int moved = 0;
+		for (int i = 0; i < regions.size(); i++)
+			moved += apply(regions.get(i));
+		moving.end(moved);
+		return moved;
+	}
+
+	/**
+	 * Lay out every chain of a store, recording every block moved in the
+	 * step being recorded, so undoing the step puts the blocks back
+	 * without laying them out again
+	 * @param store store holding the blocks
+	 * @param log log of the step that caused the layout
+	 * @return the number of blocks moved
+	 */
+	public int layout(BlockStore store, CommandLog log) {
+		this.log = log;
+		try {
+			return layout(store);
+		} finally {
+			this.log = null;
+		}
+	}
+
+	/**
+	 * Lay out the last store laid out again
+	 * @return the number of blocks moved
+	 */
+	public int layout() {
+		return store == null ? 0 : layout(store);
+	}
+
+	/**
+	 * Update the layout after a block changed, laying out only its method
+	 * if the rest of the chart is unaffected and the whole chart otherwise.
+	 * The block may also be one of new blocks that took the place of a
+	 * method's blocks, such as a method converted again.
+	 * @param block block that changed
+	 * @return the number of blocks moved
+	 */
+	public int update(FlowchartBlock block) {
+		if(block.getStore() == store && !isLaidOut(block.getId()))
+			return splice(block);
+		if(block.getStore() != store || store.size() != size ||
+				posOf[block.getId()] == NONE)
+			return layout(block.getStore());
+		int moved = relayout(regions.get(regionOf[posOf[block.getId()]]));
+		return moved < 0 ? layout(store) : moved;
+	}
+
+	/**
+	 * Lay out new blocks that took the place of a method's blocks, putting
+	 * them in the method's place in the chain order so only the method is
+	 * laid out again
+	 * @param block any of the new blocks
+	 * @return the number of blocks moved
+	 */
+	private int splice(FlowchartBlock block) {
+		// Find the run of new blocks and the laid out blocks around it
+		int first = block.getId();
+		int limit = store.size();
+		for (int n = 0; n < limit && store.getPre(first) != NONE &&
+				!isLaidOut(store.getPre(first)); n++)
+			first = store.getPre(first);
+		int last = first;
+		int count = 1;
+		while(count < limit && store.getNext(last) != NONE &&
+				!isLaidOut(store.getNext(last))) {
+			last = store.getNext(last);
+			count++;
+		}
+		int pre = store.getPre(first);
+		int after = store.getNext(last);
+
+		// They must follow a region and take the place of a method before
+		// the same block, in the same chain
+		if(pre == NONE || !isLaidOut(pre))
+			return layout(store);
+		int index = regionOf[posOf[pre]] + 1;
+		if(index >= regions.size())
+			return layout(store);
+		Region r = regions.get(index);
+		Region before = regions.get(index - 1);
+		if(!r.method || r.start != posOf[pre] + 1 || r.after != after ||
+				r.chain != before.chain)
+			return layout(store);
+
+		// Move the blocks after the method along if it changed size
+		for (int pos = r.start; pos < r.end; pos++)
+			posOf[order[pos]] = NONE;
+		if(posOf.length < limit) {
+			int length = posOf.length;
+			posOf = Arrays.copyOf(posOf, limit);
+			Arrays.fill(posOf, length, limit, NONE);
+		}
+		int delta = count - (r.end - r.start);
+		if(delta != 0) {
+			int length = order.length;
+			order = resize(order, new int[length + delta], r, length, delta);
+			kinds = resize(kinds, new byte[length + delta], r, length,
+				delta);
+			indents = resize(indents, new int[length + delta], r, length,
+				delta);
+			regionOf = resize(regionOf, new int[length + delta], r, length,
+				delta);
+			for (int pos = r.end + delta; pos < order.length; pos++)
+				posOf[order[pos]] = pos;
+			for (int i = index + 1; i < regions.size(); i++) {
+				Region next = regions.get(i);
+				if(next.chain > r.start)
+					next.chain += delta;
+				next.start += delta;
+				next.end += delta;
+			}
+			r.end += delta;
+		}
+		int id = first;
+		for (int pos = r.start; pos < r.end; pos++) {
+			order[pos] = id;
+			posOf[id] = pos;
+			regionOf[pos] = index;
+			id = store.getNext(id);
+		}
+		before.after = first;
+		size = limit;
+		int moved = relayout(r);
+		return moved < 0 ? layout(store) : moved;
+	}
+
+	/**
+	 * Copy a column of the layout by position, leaving room for a region
+	 * that changed size
+	 * @param from column to copy
+	 * @param to column delta longer than from
+	 * @param r region that changed size, with its old end
+	 * @param length length of from
+	 * @param delta change in the region's size
+	 * @return to
+	 */
+	private static <T> T resize(T from, T to, Region r, int length,
+			int delta) {
+		System.arraycopy(from, 0, to, 0, r.start);
+		System.arraycopy(from, r.end, to, r.end + delta, length - r.end);
+		return to;
+	}
+
+	/**
+	 * Check if a block has a place in the last layout
+	 * @param id id of the block
+	 * @return true if the block was laid out
+	 */
+	private boolean isLaidOut(int id) {
+		return id < posOf.length && posOf[id] != NONE;
+	}
+
+	/**
+	 * Lay out one region again, if it still holds the same blocks split
+	 * off from its neighbours the same way and fits its column
+	 * @param r region to lay out
+	 * @return the number of blocks moved, or -1 if the whole chart has to
+	 * be laid out instead
+	 */
+	private int relayout(Region r) {
+		// The region must still hold the same blocks in the same order
+		int id = order[r.start];
+		for (int pos = r.start; pos < r.end; pos++) {
+			if(id != order[pos])
+				return -1;
+			kinds[pos] = kind(id);
+			id = store.getNext(id);
+		}
+		if(id != r.after || r.method && kinds[r.start] != BEGIN)
+			return -1;
+
+		// And still be split off from its neighbours the same way
+		int depth = r.depth;
+		for (int pos = r.start; pos < r.end; pos++) {
+			if(pos > r.start && startsMethod(pos, depth, r.method))
+				return -1;
+			depth = depthAfter(kinds[pos], depth);
+			if(r.method && depth == r.depth && pos + 1 < r.end)
+				return -1;
+		}
+		if(depth != r.depthOut)
+			return -1;
+
+		// Columns only keep their place if the region is no wider
+		int width = r.width;
+		place(r);
+		if(r.width > width && r.width > r.columnWidth)
+			return -1;
+		return apply(r);
+	}
+
+	/**
+	 * Split a chain into regions, one for each method and one for each run
+	 * of class level blocks between them
+	 * @param start position of the first block of the chain
+	 * @param end position after the last block of the chain
+	 */
+	private void split(int start, int end) {
+		int chain = start;
+		int depth = 0;
+		int column = 0;
+		Region r = null;
+		for (int pos = start; pos < end; pos++) {
+			boolean method = startsMethod(pos, depth,
+				r != null && r.method && r.depthOut < 0);
+			if(r == null || method || (r.method && r.depthOut >= 0)) {
+				if(r != null)
+					close(r, pos, depth);
+				r = new Region(chain, pos, depth, method,
+					method ? ++column : 0);
+			}
+			regionOf[pos] = regions.size();
+			depth = depthAfter(kinds[pos], depth);
+
+			// A method ends once its end brings the depth back down
+			if(r.method && depth == r.depth)
+				r.depthOut = depth;
+		}
+		if(r != null)
+			close(r, end, depth);
+	}
+
+	/**
+	 * Finish a region and add it to the list of regions
+	 * @param r region to finish
+	 * @param end position after its last block
+	 * @param depth depth after its last block
+	 */
+	private void close(Region r, int end, int depth) {
+		r.end = end;
+		r.depthOut = depth;
+		r.after = store.getNext(order[end - 1]);
+		regions.add(r);
+	}
+
+	/**
+	 * Check if a block begins a method, which is a class or method begun
+	 * inside a class and not inside another method
+	 * @param pos position of the block
+	 * @param depth depth before the block
+	 * @param inMethod whether the block is inside a method
+	 * @return true if the block begins a method
+	 */
+	private boolean startsMethod(int pos, int depth, boolean inMethod) {
+		return !inMethod && depth >= 1 && kinds[pos] == BEGIN;
+	}
+
+	/**
+	 * Get the depth after a block
+	 * @param kind kind of the block
+	 * @param depth depth before the block
+	 * @return the depth after the block
+	 */
+	private static int depthAfter(byte kind, int depth) {
+		if(kind == END || kind == CLOSE || kind == CLOSE_OPEN)
+			depth = Math.max(depth - 1, 0);
+		if(kind == BEGIN || kind == OPEN || kind == CLOSE_OPEN)
+			depth++;
+		return depth;
+	}
+
+	/**
+	 * Work out the indents and width of a region
+	 * @param r region to place
+	 */
+	private void place(Region r) {
+		// Methods are indented from their own begin, classes from nothing
+		int depth = r.depth;
+		int base = r.method ? r.depth : 0;
+		int widest = 0;
+		for (int pos = r.start; pos < r.end; pos++) {
+			byte kind = kinds[pos];
+			if(kind == END || kind == CLOSE || kind == CLOSE_OPEN)
+				depth = Math.max(depth - 1, 0);
+			indents[pos] = Math.max(depth - base, 0) * getIndent();
+			widest = Math.max(widest, indents[pos]);
+			if(kind == BEGIN || kind == OPEN || kind == CLOSE_OPEN)
+				depth++;
+		}
+		r.width = (int) FlowchartBlock.getWidth() + widest;
+	}
+
+	/**
+	 * Place the columns of a chain next to each other
+	 * @param first index of the chain's first region
+	 * @param end index after the chain's last region
+	 * @param x x coordinate of the chain's first column
+	 * @param y y coordinate of the chain's first row
+	 * @return the x coordinate after the chain
+	 */
+	private int placeColumns(int first, int end, int x, int y) {
+		// Each column is as wide as its widest region
+		int columns = 0;
+		for (int i = first; i < end; i++)
+			columns = Math.max(columns, regions.get(i).column + 1);
+		int[] widths = new int[columns];
+		for (int i = first; i < end; i++) {
+			Region r = regions.get(i);
+			widths[r.column] = Math.max(widths[r.column], r.width);
+		}
+		int[] lefts = new int[columns];
+		for (int c = 0; c < columns; c++) {
+			lefts[c] = x;
+			x += widths[c] + getGap();
+		}
+
+		// Class level regions continue down the first column
+		int row = 0;
+		for (int i = first; i < end; i++) {
+			Region r = regions.get(i);
+			r.x = lefts[r.column];
+			r.y = y;
+			r.columnWidth = widths[r.column];
+			if(r.method) {
+				r.row = 0;
+			} else {
+				r.row = row;
+				row += r.end - r.start;
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Move the blocks of a region to their places
+	 * @param r region to move
+	 * @return the number of blocks moved
+	 */
+	private int apply(Region r) {
+		int moved = 0;
+		int rowHeight = (int) FlowchartBlock.getHeight() +
+			FlowchartBlock.getBuffer();
+		for (int pos = r.start; pos < r.end; pos++) {
+			int id = order[pos];
+			int x = r.x + indents[pos];
+			int y = r.y + (r.row + pos - r.start) * rowHeight;
+			if(store.getX(id) != x || store.getY(id) != y) {
+				FlowchartBlock block = store.getBlock(id);
+				if(log != null)
+					log.moved(block, x - store.getX(id), y - store.getY(id));
+				block.setOrigin(x, y);
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Get the kind of a block from its type and message
+	 * @param id id of the block
+	 * @return the kind of the block
+	 */
+	private byte kind(int id) {
+		String msg = store.getMsg(id);
+		msg = msg == null ? "" : msg.trim();
+		if(store.getType(id) == BlockType.TERMINATOR) {
+			if(msg.startsWith("Begin "))
+				return BEGIN;
+			if(msg.startsWith("End "))
+				return END;
+			return PLAIN;
+		}
+		boolean close = msg.startsWith("}");
+		boolean open = msg.endsWith("{");
+		if(close && open)
+			return CLOSE_OPEN;
+		return close ? CLOSE : open ? OPEN : PLAIN;
+	}
+
+	/**
+	 * Run a task in the current pool if already in one, otherwise in the
+	 * engine's pool
+	 * @param task task to run
+	 */
+	private void run(ForkJoinTask<?> task) {
+		if(ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			pool.invoke(task);
+	}
+
+	/**
+	 * Getter for the indent of each level of nesting
+	 * @return the indent in pixels
+	 */
+	public static int getIndent() {
+		return FlowchartBlock.getBuffer();
+	}
+
+	/**
+	 * Getter for the gap between columns
+	 * @return the gap in pixels
+	 */
+	public static int getGap() {
+		return FlowchartBlock.getBuffer();
+	}
+
+	/**
+	 * This class is a run of blocks placed together, either a method in a
+	 * column of its own or class level blocks in the first column
+	 */
+	private static class Region {
+		int chain; // position of the first block of the chain
+		int start; // position of the first block
+		final int depth; // depth before the first block
+		final boolean method; // whether the region is a method
+		final int column; // column of the chain the region is in
+		int end; // position after the last block
+		int after = NONE; // id of the block following the region
+		int depthOut = -1; // depth after the last block
+		int width; // width of the region's blocks with their indents
+		int columnWidth; // width of the region's column
+		int x; // x coordinate of the column
+		int y; // y coordinate of the first row
+		int row; // row of the first block in the column
+
+		Region(int chain, int start, int depth, boolean method,
+				int column) {
+			this.chain = chain;
+			this.start = start;
+			this.depth = depth;
+			this.method = method;
+			this.column = column;
+		}
+	}
+
+	/**
+	 * This class classifies a range of blocks, splitting it in half until
+	 * it is small enough
+	 */
+	@SuppressWarnings("serial")
+	private class ClassifyTask extends RecursiveAction {
+		private final int lo; // first position of the range
+		private final int hi; // end of the range, exclusive
+
+		ClassifyTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(hi - lo <= CHUNK) {
+				for (int pos = lo; pos < hi; pos++)
+					kinds[pos] = kind(order[pos]);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ClassifyTask(lo, mid), new ClassifyTask(mid, hi));
+		}
+	}
+
+	/**
+	 * This class places a range of regions, splitting it in half until a
+	 * single region is left
+	 */
+	@SuppressWarnings("serial")
+	private class PlaceTask extends RecursiveAction {
+		private final int lo; // first region of the range
+		private final int hi; // end of the range, exclusive
+
+		PlaceTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if(hi - lo <= 1) {
+				if(hi > lo)
+					place(regions.get(lo));
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new PlaceTask(lo, mid), new PlaceTask(mid, hi));
+		}
+	}
+}
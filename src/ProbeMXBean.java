@@ -0,0 +1,60 @@
+/**
+ * ProbeMXBean is the management interface of a Telemetry probe, showing
+ * how often a timed operation ran and how long it took in JConsole or any
+ * other JMX client
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+public interface ProbeMXBean {
+	/**
+	 * Getter for count
+	 * @return the number of times the operation ran
+	 */
+	public long getCount();
+
+	/**
+	 * Getter for blocks
+	 * @return the number of blocks handled by all runs, such as drawn,
+	 * hit, moved, parsed or generated
+	 */
+	public long getBlocks();
+
+	/**
+	 * Getter for the mean time
+	 * @return the average time of a run in milliseconds
+	 */
+	public double getMeanMillis();
+
+	/**
+	 * Getter for the max time
+	 * @return the longest time of a run in milliseconds
+	 */
+	public double getMaxMillis();
+
+	/**
+	 * Getter for the median time
+	 * @return the time half of the runs took at most, in milliseconds,
+	 * rounded up to a power of two microseconds
+	 */
+	public double getMedianMillis();
+
+	/**
+	 * Getter for the 99th percentile time
+	 * @return the time 99% of the runs took at most, in milliseconds,
+	 * rounded up to a power of two microseconds
+	 */
+	public double getP99Millis();
+
+	/**
+	 * Getter for histogram
+	 * @return the number of runs taking under 1us, then 1-2us, 2-4us and so
+	 * on, each bucket twice as long as the last
+	 */
+	public long[] getHistogram();
+
+	/**
+	 * Forget all runs recorded so far
+	 */
+	public void reset();
+}
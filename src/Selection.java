@@ -0,0 +1,134 @@
+/**
+ * Selection is a group of blocks moved together. Dragging a selection only
+ * changes its offset, and the blocks stay where they are until the drag
+ * ends and the offset is committed to them. Painting and hit-testing add
+ * the offset to the selected blocks, so a frame of a drag costs the same
+ * however many blocks are selected.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.util.*;
+
+public class Selection {
+	// Selected blocks in the order they were selected, and the same blocks
+	// for checking if a block is selected
+	private ArrayList<FlowchartBlock> blocks = new ArrayList<FlowchartBlock>();
+	private IdentityHashMap<FlowchartBlock, Boolean> members =
+		new IdentityHashMap<FlowchartBlock, Boolean>();
+
+	// Distance the selection was dragged and not yet committed
+	private int offsetX = 0;
+	private int offsetY = 0;
+
+	/**
+	 * Add a block to the selection
+	 * @param block block to select
+	 */
+	public void add(FlowchartBlock block) {
+		if(members.put(block, Boolean.TRUE) == null)
+			blocks.add(block);
+	}
+
+	/**
+	 * Remove a block from the selection
+	 * @param block block to deselect
+	 */
+	public void remove(FlowchartBlock block) {
+		if(members.remove(block) != null)
+			blocks.remove(block);
+	}
+
+	/**
+	 * Check if a block is selected
+	 * @param block block to check, may be null
+	 * @return true if the block is selected
+	 */
+	public boolean contains(FlowchartBlock block) {
+		return block != null && members.containsKey(block);
+	}
+
+	/**
+	 * Deselect all blocks, dropping any offset not committed
+	 */
+	public void clear() {
+		blocks.clear();
+		members.clear();
+		offsetX = 0;
+		offsetY = 0;
+	}
+
+	/**
+	 * Getter for the number of blocks
+	 * @return the number of blocks selected
+	 */
+	public int size() {
+		return blocks.size();
+	}
+
+	/**
+	 * Check if no blocks are selected
+	 * @return true if the selection is empty
+	 */
+	public boolean isEmpty() {
+		return blocks.isEmpty();
+	}
+
+	/**
+	 * Getter for blocks
+	 * @return the selected blocks, which can't be changed through the list
+	 */
+	public List<FlowchartBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * Move the selection without moving its blocks yet
+	 * @param deltaX distance to move in x-direction
+	 * @param deltaY distance to move in y-direction
+	 */
+	public void translate(double deltaX, double deltaY) {
+		offsetX += (int) deltaX;
+		offsetY += (int) deltaY;
+	}
+
+	/**
+	 * Getter for offsetX
+	 * @return the distance dragged in x-direction not yet committed
+	 */
+	public int getOffsetX() {
+		return offsetX;
+	}
+
+	/**
+	 * Getter for offsetY
+	 * @return the distance dragged in y-direction not yet committed
+	 */
+	public int getOffsetY() {
+		return offsetY;
+	}
+
+	/**
+	 * Check if the selection was dragged and not yet committed
+	 * @return true if the offset isn't zero
+	 */
+	public boolean isMoved() {
+		return offsetX != 0 || offsetY != 0;
+	}
+
+	/**
+	 * Move the blocks by the offset and reset it
+	 * @param log log to record the moves in, may be null
+	 */
+	public void commit(CommandLog log) {
+		if(!isMoved())
+			return;
+		for (int i = 0; i < blocks.size(); i++) {
+			blocks.get(i).move(offsetX, offsetY);
+			if(log != null)
+				log.moved(blocks.get(i), offsetX, offsetY);
+		}
+		offsetX = 0;
+		offsetY = 0;
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * SourceWatcher notices when files shown on a canvas, such as the Java file
+ * a chart was converted from, are changed on disk. Each directory holding a
+ * watched file is registered once with the file system's WatchService, and
+ * a single thread waits for the events of all of them, so any number of
+ * files and directories with thousands of other files are watched without
+ * polling or a thread per file. Events for files that aren't watched are
+ * dropped with one lookup.
+ *
+ * Editors often save a file in a burst of writes, or write a new file and
+ * rename it over the old one, so a change is only reported once a file has
+ * been quiet for a while, and a burst of saves is reported once.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class SourceWatcher implements Closeable {
+	public static final long DEFAULT_DELAY = 300; // ms a file must be quiet
+
+	private final WatchService service; // service reporting the events
+	private final long delay; // ns a file must be quiet for
+
+	// Directory of each key, and the files watched in each directory by
+	// name with what to run when they change. Guarded by this watcher.
+	private final HashMap<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+	private final HashMap<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+	private final HashMap<Path, HashMap<Path, Runnable>> files =
+		new HashMap<Path, HashMap<Path, Runnable>>();
+
+	// Files changed and when they will be quiet long enough to report, only
+	// touched by the watching thread
+	private final HashMap<Path, Long> changed = new HashMap<Path, Long>();
+
+	/**
+	 * Constructor for SourceWatcher reporting changes after DEFAULT_DELAY
+	 * @throws IOException if the file system can't be watched
+	 */
+	public SourceWatcher() throws IOException {
+		this(DEFAULT_DELAY);
+	}
+
+	/**
+	 * Constructor for SourceWatcher, starting the thread waiting for changes
+	 * @param delay ms a file must be quiet before its change is reported
+	 * @throws IOException if the file system can't be watched
+	 */
+	public SourceWatcher(long delay) throws IOException {
+		this.service = FileSystems.getDefault().newWatchService();
+		this.delay = TimeUnit.MILLISECONDS.toNanos(delay);
+
+		// The thread doesn't keep the program open
+		Thread thread = new Thread(this::run, "Source watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Watch a file, replacing what was run for it if it was watched already
+	 * @param file file to watch
+	 * @param change run on the watching thread once the file changed and
+	 * was quiet since, so it should hand the change to another thread
+	 * @throws IOException if the file's directory can't be watched
+	 */
+	public synchronized void watch(Path file, Runnable change)
+			throws IOException {
+		file = file.toAbsolutePath().normalize();
+		Path dir = file.getParent();
+		HashMap<Path, Runnable> watched = files.get(dir);
+		if(watched == null) {
+			// Files replaced by a rename are created rather than modified
+			WatchKey key = dir.register(service,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+			dirs.put(key, dir);
+			keys.put(dir, key);
+			watched = new HashMap<Path, Runnable>();
+			files.put(dir, watched);
+		}
+		watched.put(file.getFileName(), change);
+	}
+
+	/**
+	 * Stop watching a file, and its directory if no other file in it is
+	 * watched
+	 * @param file file to stop watching
+	 */
+	public synchronized void unwatch(Path file) {
+		file = file.toAbsolutePath().normalize();
+		Path dir = file.getParent();
+		HashMap<Path, Runnable> watched = files.get(dir);
+		if(watched == null || watched.remove(file.getFileName()) == null ||
+				!watched.isEmpty())
+			return;
+		files.remove(dir);
+		WatchKey key = keys.remove(dir);
+		dirs.remove(key);
+		key.cancel();
+	}
+
+	/**
+	 * Check if a file is watched
+	 * @param file file to check
+	 * @return true if changes to the file are reported
+	 */
+	public synchronized boolean isWatched(Path file) {
+		return getChange(file.toAbsolutePath().normalize()) != null;
+	}
+
+	/**
+	 * Stop watching all files and end the watching thread
+	 * @throws IOException if the watch service can't be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+
+	/**
+	 * Wait for events until the watcher is closed, noting which watched
+	 * files changed and reporting those that were quiet long enough
+	 */
+	private void run() {
+		try {
+			while(true) {
+				WatchKey key = changed.isEmpty() ? service.take() :
+					service.poll(getWait(), TimeUnit.NANOSECONDS);
+				if(key != null) {
+					collect(key);
+					if(!key.reset())
+						forget(key);
+				}
+				report();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Closed, stop watching
+		}
+	}
+
+	/**
+	 * Note the watched files a key's events changed. Each event pushes the
+	 * file's report back, so a burst of saves is reported once.
+	 * @param key key with events
+	 */
+	private synchronized void collect(WatchKey key) {
+		long quiet = System.nanoTime() + delay;
+		Path dir = dirs.get(key);
+		HashMap<Path, Runnable> watched = dir == null ? null : files.get(dir);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if(watched == null)
+				continue;
+
+			// Events were lost, so any file in the directory may have changed
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				for (Path name : watched.keySet())
+					changed.put(dir.resolve(name), quiet);
+			} else if(watched.containsKey(event.context())) {
+				changed.put(dir.resolve((Path) event.context()), quiet);
+			}
+		}
+	}
+
+	/**
+	 * Stop watching the files of a key that is no longer valid, such as
+	 * after its directory was deleted, so they can be watched again
+	 * @param key key that can't be reset
+	 */
+	private synchronized void forget(WatchKey key) {
+		Path dir = dirs.remove(key);
+		if(dir == null)
+			return;
+		keys.remove(dir);
+		files.remove(dir);
+	}
+
+	/**
+	 * Report the changed files that were quiet long enough
+	 */
+	private void report() {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Path, Long>> it = changed.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Path, Long> entry = it.next();
+			if(entry.getValue() - now > 0)
+				continue;
+			it.remove();
+
+			// The file may have stopped being watched since it changed
+			Runnable change;
+			synchronized(this) {
+				change = getChange(entry.getKey());
+			}
+			if(change != null)
+				change.run();
+		}
+	}
+
+	/**
+	 * Get the time until the next changed file is quiet long enough
+	 * @return ns to wait, 0 if a file is ready to report
+	 */
+	private long getWait() {
+		long now = System.nanoTime();
+		long wait = Long.MAX_VALUE;
+		for (long quiet : changed.values())
+			wait = Math.min(wait, quiet - now);
+		return Math.max(0, wait);
+	}
+
+	/**
+	 * Get what is run when a file changes
+	 * @param file absolute path of the file
+	 * @return what is run, or null if the file isn't watched
+	 */
+	private Runnable getChange(Path file) {
+		HashMap<Path, Runnable> watched = files.get(file.getParent());
+		return watched == null ? null : watched.get(file.getFileName());
+	}
+}
@@ -0,0 +1,16 @@
+/**
+ * StoreListener is notified by a BlockStore whenever the content or links
+ * of one of its blocks change, such as to keep something worked out from
+ * the blocks up to date. Moving a block doesn't notify it.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+public interface StoreListener {
+	/**
+	 * Called after the type, message, links or branch of a block changed,
+	 * or the block was removed, on the thread that changed it
+	 * @param id id of the block
+	 */
+	public void blockChanged(int id);
+}
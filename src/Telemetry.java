@@ -0,0 +1,264 @@
+/**
+ * Telemetry times the operations the program spends most of its time on:
+ * painting frames, hit-testing, moving blocks, parsing and generating code.
+ * Each operation has a probe counting its runs and the blocks they
+ * handled, with a histogram of their times. Probes can be read on the
+ * canvas overlay (F3) or through JMX, and each run is also a JDK Flight
+ * Recorder event when the JVM has Flight Recorder, so slow frames and
+ * conversions show up in recordings taken on users' machines.
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+public class Telemetry {
+	// Kinds of probes, telling the recorder which event to create
+	static final int FRAME_KIND = 0;
+	static final int HIT_TEST_KIND = 1;
+	static final int MOVE_KIND = 2;
+	static final int PARSE_KIND = 3;
+	static final int CODEGEN_KIND = 4;
+
+	// Probes of the timed operations
+	public static final Probe FRAME = new Probe("Frame", FRAME_KIND);
+	public static final Probe HIT_TEST = new Probe("HitTest", HIT_TEST_KIND);
+	public static final Probe MOVE = new Probe("Move", MOVE_KIND);
+	public static final Probe PARSE = new Probe("Parse", PARSE_KIND);
+	public static final Probe CODEGEN = new Probe("Codegen", CODEGEN_KIND);
+	private static final Probe[] PROBES = {FRAME, HIT_TEST, MOVE, PARSE,
+		CODEGEN};
+
+	private static final String DOMAIN = "flowchart"; // domain of the MBeans
+	private static final int BUCKETS = 32; // histogram buckets, up to ~36min
+
+	// Recorder sending the runs to Flight Recorder, or null if the JVM 
+	// doesn't have it or the events weren't compiled
+	private static final Recorder RECORDER = loadRecorder();
+
+	/**
+	 * Getter for probes
+	 * @return all probes
+	 */
+	public static Probe[] getProbes() {
+		return PROBES.clone();
+	}
+
+	/**
+	 * Register an MBean for each probe with the platform MBean server, as
+	 * flowchart:type=Telemetry,name=Frame and so on
+	 * @return false if the MBeans couldn't be registered
+	 */
+	public static boolean registerMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (int i = 0; i < PROBES.length; i++) {
+				ObjectName name = new ObjectName(DOMAIN +
+					":type=Telemetry,name=" + PROBES[i].getName());
+				if(!server.isRegistered(name))
+					server.registerMBean(PROBES[i], name);
+			}
+			return true;
+		} catch (JMException e) {
+			// Telemetry is optional, the program works the same without it
+			return false;
+		}
+	}
+
+	/**
+	 * Load the Flight Recorder events, if the JVM has Flight Recorder, which 
+	 * Java 8 only has from update 262. The events are compiled from the jfr 
+	 * folder and only linked by name, so the rest of the program builds 
+	 * against Java 8 and runs without them.
+	 * @return the recorder of the events, or null if there is none
+	 */
+	private static Recorder loadRecorder() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Recorder) Class.forName("TelemetryEvents")
+				.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | 
+				ClassCastException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Recorder sends the runs of probes to Flight Recorder as events
+	 */
+	interface Recorder {
+		/**
+		 * Start the event of a probe
+		 * @param kind kind of probe, one of the probe kinds
+		 * @return the started event, or null if no recording wants it
+		 */
+		Object begin(int kind);
+
+		/**
+		 * End an event started by begin and commit it to the recording
+		 * @param event event returned by begin
+		 * @param blocks number of blocks handled
+		 */
+		void commit(Object event, long blocks);
+	}
+
+	/**
+	 * Probe records the runs of one operation. It can be updated from any
+	 * thread.
+	 */
+	public static class Probe implements ProbeMXBean {
+		private final String name; // name of the operation
+		private final int kind; // kind of probe
+
+		// Runs, blocks, total and longest time in nanoseconds
+		private final LongAdder count = new LongAdder();
+		private final LongAdder blocks = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		// Runs by time, bucket b holding times under 2^b microseconds
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		/**
+		 * Constructor for Probe
+		 * @param name name of the operation
+		 * @param kind kind of probe
+		 */
+		private Probe(String name, int kind) {
+			this.name = name;
+			this.kind = kind;
+		}
+
+		/**
+		 * Start timing a run of the operation
+		 * @return the run, to be ended when the operation is done
+		 */
+		public Span begin() {
+			return new Span(this, RECORDER != null ? RECORDER.begin(kind) :
+				null);
+		}
+
+		/**
+		 * Record a run of the operation
+		 * @param nanos time the run took in nanoseconds
+		 * @param n number of blocks the run handled
+		 */
+		public void record(long nanos, long n) {
+			count.increment();
+			blocks.add(n);
+			total.add(nanos);
+			max.accumulate(nanos);
+			long micros = nanos / 1000;
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		}
+
+		/**
+		 * Get the time a share of the runs took at most
+		 * @param share share of the runs, from 0 to 1
+		 * @return the time in milliseconds, rounded up to the end of its
+		 * histogram bucket but no longer than the longest run
+		 */
+		public double getPercentileMillis(double share) {
+			long[] runs = getHistogram();
+			long n = 0;
+			for (int b = 0; b < runs.length; b++)
+				n += runs[b];
+			long seen = 0;
+			for (int b = 0; b < runs.length; b++) {
+				seen += runs[b];
+				if(seen > 0 && seen >= share * n)
+					return Math.min((1L << b) / 1000.0, getMaxMillis());
+			}
+			return 0;
+		}
+
+		/**
+		 * Getter for name
+		 * @return the name of the operation
+		 */
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public long getCount() {
+			return count.sum();
+		}
+
+		@Override
+		public long getBlocks() {
+			return blocks.sum();
+		}
+
+		@Override
+		public double getMeanMillis() {
+			long n = count.sum();
+			return n == 0 ? 0 : total.sum() / 1e6 / n;
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return max.get() / 1e6;
+		}
+
+		@Override
+		public double getMedianMillis() {
+			return getPercentileMillis(0.5);
+		}
+
+		@Override
+		public double getP99Millis() {
+			return getPercentileMillis(0.99);
+		}
+
+		@Override
+		public long[] getHistogram() {
+			long[] runs = new long[BUCKETS];
+			for (int b = 0; b < BUCKETS; b++)
+				runs[b] = histogram.get(b);
+			return runs;
+		}
+
+		@Override
+		public void reset() {
+			count.reset();
+			blocks.reset();
+			total.reset();
+			max.reset();
+			for (int b = 0; b < BUCKETS; b++)
+				histogram.set(b, 0);
+		}
+	}
+
+	/**
+	 * Span is one run of an operation being timed
+	 */
+	public static class Span {
+		private final Probe probe; // probe the run is recorded in
+		private final Object event; // Flight Recorder event, or null
+		private final long start = System.nanoTime(); // start of the run
+
+		/**
+		 * Constructor for Span
+		 * @param probe probe the run is recorded in
+		 * @param event started Flight Recorder event, or null
+		 */
+		private Span(Probe probe, Object event) {
+			this.probe = probe;
+			this.event = event;
+		}
+
+		/**
+		 * End the run, recording it in its probe and committing its event
+		 * @param blocks number of blocks the run handled
+		 */
+		public void end(long blocks) {
+			probe.record(System.nanoTime() - start, blocks);
+			if(event != null)
+				RECORDER.commit(event, blocks);
+		}
+	}
+}
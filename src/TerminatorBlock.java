@@ -13,16 +13,22 @@ public class TerminatorBlock extends FlowchartBlock
 							            MouseMotionListener*/ {
 	
 	private static final double arc = 10; // Arc curve radius
-	private static final int msgBuffer = 15; /* Space between shape outline
-											    and text */
+	
+	/**
+	 * Create the template of terminator blocks, see BlockType
+	 * @return the rounded rectangle of every terminator block, with its
+	 * origin at (0, 0)
+	 */
+	static RoundRectangle2D.Double createTemplate() {
+		return new RoundRectangle2D.Double(0, 0, getWidth(), getHeight(),
+			arc, arc);
+	}
 	//private static final double limit = 5;
 
 	//private Point prevPoint;
 	//private Point currPoint;
     //boolean isDragged;
     
-    private BlockCanvas canv; // canvas to draw on
-    
     /**
      * Constructor for TerminatorBlock initializing data fields
      * @param x x coordinate of block
@@ -32,26 +38,17 @@ public class TerminatorBlock extends FlowchartBlock
      */
 	public TerminatorBlock(double x, double y, String msg, 
 		FlowchartBlock pre, BlockCanvas c) {
-		// Call the parent ctor passing in the block type
-		super("Terminator");
-		
-		// Initialize data fields
-		this.setBlock(new RoundRectangle2D.Double(x, y, getWidth(), 
-			getHeight(), arc, arc));
-		this.setMsg(msg);
-		this.setxStr((int) x + msgBuffer);
-		this.setyStr((int) y + msgBuffer);
-		this.setPre(pre);
-		if(pre != null)
-			this.getPre().setNext(this);
-		this.setOrigin(new Point((int) x, (int) y));
-		this.setTop(new Point((int) (x + getWidth()/2), (int) y));
-		this.setBottom(new Point((int) (x + getWidth()/2), 
-			(int) (y + getHeight())));
-		this.setLeft(new Point((int) x, (int) (y + getHeight()/2)));
-		this.setRight(new Point((int) (x + getWidth()), 
-			(int) (y + getHeight()/2)));
-		this.setCanv(c);
+		// Call the parent ctor passing in the block type and data fields
+		super(BlockType.TERMINATOR, x, y, msg, pre, c);
+	}
+	
+	/**
+	 * Constructor for a TerminatorBlock already in a store
+	 * @param store store holding the block's data
+	 * @param id id of the block in the store
+	 */
+	TerminatorBlock(BlockStore store, int id) {
+		super(store, id);
 	}
 
 	/*
@@ -61,42 +58,6 @@ public class TerminatorBlock extends FlowchartBlock
 		g2.draw(this.getBlock());
 	}*/
 	
-	/**
-	 * Move the block on canvas
-	 * @param deltaX distance to move in x-direction
-	 * @param deltaY distance to move in y-direction
-	 */
-	@Override
-	public void move(double deltaX, double deltaY) {
-		// Change the coordinates of the shape
-		((RoundRectangle2D) getBlock()).setRoundRect(
-			((RoundRectangle2D.Double) getBlock()).getX() + deltaX, 
-			((RoundRectangle2D.Double) getBlock()).getY() + deltaY,
-			getWidth(), getHeight(), arc, arc);
-		
-		// Set the origin, top, bottom, left, right to their new locations
-		this.getOrigin().setLocation(this.getOrigin().getX() + deltaX,
-			this.getOrigin().getY() + deltaY);
-		this.getTop().setLocation(this.getTop().getX() + deltaX,
-			this.getTop().getY() + deltaY);
-		this.getBottom().setLocation(this.getBottom().getX() + deltaX,
-			this.getBottom().getY() + deltaY);
-		this.getLeft().setLocation(this.getLeft().getX() + deltaX,
-			this.getLeft().getY() + deltaY);
-		this.getRight().setLocation(this.getRight().getX() + deltaX,
-			this.getRight().getY() + deltaY);
-	}
-	
-	/**
-	 * Check if the shape contains a point
-	 * @param p point to check for insideness
-	 */
-	@Override
-	public boolean containsPoint(Point p) {
-		// Call the shape's contain method and return the result
-		return this.getBlock().contains(p.getX(), p.getY());
-	}
-	
 	/*
 	@Override
 	public void mousePressed(MouseEvent e) {
@@ -154,20 +115,4 @@ public class TerminatorBlock extends FlowchartBlock
 	@Override
 	public void mouseExited(MouseEvent e) {}
 	*/
-	
-	/**
-	 * Getter for canv
-	 * @return the canvas of the block
-	 */
-	public BlockCanvas getCanv() {
-		return canv;
-	}
-
-	/**
-	 * Setter for canv
-	 * @param canv new canvas for block
-	 */
-	public void setCanv(BlockCanvas canv) {
-		this.canv = canv;
-	}
 }
\ No newline at end of file
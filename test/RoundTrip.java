@@ -0,0 +1,70 @@
+/**
+ * RoundTrip checks that code survives being converted to charts and back.
+ * Every Java file in a directory tree is converted to a chart file and the
+ * chart files back to Java files with BatchConverter, then the generated
+ * files are compiled. Comments, annotations and formatting are lost on the
+ * way, but the code must still compile.
+ *
+ * Usage: java RoundTrip [srcDir]
+ *
+ * @author Minh Vo
+ * @version 0.0.3
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import javax.tools.*;
+
+public class RoundTrip {
+	/**
+	 * Main method converting a directory both ways and compiling the result
+	 * @param args directory of Java files, "src" if there is none
+	 */
+	public static void main(String[] args) throws IOException {
+		Path src = Paths.get(args.length > 0 ? args[0] : "src");
+		Path work = Files.createTempDirectory("roundtrip");
+		Path charts = work.resolve("charts");
+		Path code = work.resolve("code");
+		Path classes = work.resolve("classes");
+		Files.createDirectories(classes);
+
+		// Convert to charts and back
+		int threads = Runtime.getRuntime().availableProcessors();
+		BatchConverter toChart = new BatchConverter(BatchConverter.TO_CHART,
+			src, charts);
+		toChart.run(threads);
+		BatchConverter toCode = new BatchConverter(BatchConverter.TO_CODE,
+			charts, code);
+		toCode.run(threads);
+		if(toChart.getFailures() > 0 || toCode.getFailures() > 0)
+			fail(toChart.getFailures() + toCode.getFailures() +
+				" files could not be converted");
+
+		// Compile the generated code
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null)
+			fail("No compiler, run with a JDK");
+		List<String> options = new ArrayList<String>(Arrays.asList(
+			"-nowarn", "-proc:none", "-d", classes.toString()));
+		try (Stream<Path> walk = Files.walk(code)) {
+			walk.filter(path -> path.toString().endsWith(".java"))
+				.forEach(path -> options.add(path.toString()));
+		}
+		if(compiler.run(null, null, null,
+				options.toArray(new String[0])) != 0)
+			fail("Generated code in " + code + " doesn't compile");
+		System.out.println("Converted " + toCode.getFiles() + " files (" +
+			toCode.getBlocks() + " blocks) to charts and back, and the " +
+			"code compiles");
+	}
+
+	/**
+	 * Report a failed check and exit
+	 * @param msg what failed
+	 */
+	private static void fail(String msg) {
+		System.err.println(msg);
+		System.exit(1);
+	}
+}